@@ -0,0 +1,361 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+import fi.iki.elonen.NanoHTTPD.Response;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The JSON API of the {@link AlbumServer}:
+ * <ul>
+ * <li>GET /api/years: the years that have photos</li>
+ * <li>GET /api/tags: all tags with their number of photos</li>
+ * <li>GET /api/photos?q=&lt;query&gt;&amp;page=&lt;n&gt;&amp;size=&lt;n&gt;: a
+ * page of the photos that match a tag query</li>
+ * <li>GET /api/photos?q=&lt;query&gt;: all photos that match a tag query</li>
+ * </ul>
+ * The JSON is written with a generator straight from the database cursors.
+ * The list of all photos of a query is streamed to the client while it is
+ * read, one chunk of photos at a time; the other answers are kept in memory
+ * until the tags of any photo change, which is seen on the
+ * {@link Counters#GENERATION} counter.
+ */
+@Slf4j
+public class AlbumApi {
+
+	private static final String MIME_JSON = "application/json";
+	private static final int PIPE_SIZE = 64 * 1024;
+	private static final int MAX_PAGE_SIZE = PhotoLoader.CHUNK_SIZE;
+
+	private final MongoCollection<Document> tcol;
+	private final MongoCollection<Document> pcol;
+	private final TagQueryEngine engine;
+	private final Counters counters;
+	private final long maxBytes;
+	private final long checkMillis;
+	/** Writes the streamed answers */
+	private final ExecutorService streams;
+	private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private int generation = -1;
+	private long checked;
+
+	/**
+	 * Writes an answer.
+	 */
+	@FunctionalInterface
+	private interface Body {
+		void write(JsonGenerator gen) throws IOException;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf     configuration properties
+	 * @param database MongoDatabase object
+	 */
+	public AlbumApi(Properties conf, MongoDatabase database) {
+		this.tcol = database.getCollection("tags");
+		this.pcol = database.getCollection("photos");
+		this.engine = new TagQueryEngine(database, conf);
+		this.counters = new Counters(database);
+		this.maxBytes = Long.parseLong(conf.getProperty("server.api.cache.mb", "8")) * 1024L * 1024L;
+		this.checkMillis = Long.parseLong(conf.getProperty("server.api.cache.check.ms", "1000"));
+		AtomicInteger count = new AtomicInteger();
+		this.streams = Executors.newFixedThreadPool(Integer.parseInt(conf.getProperty("server.threads", "16")), r -> {
+			Thread t = new Thread(r, "album-api-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Answer a request for a path that starts with /api/.
+	 *
+	 * @param session the request
+	 * @return the response
+	 */
+	public Response serve(IHTTPSession session) {
+		String uri = session.getUri();
+		try {
+			if (uri.equals("/api/years")) {
+				return cached("years", this::writeYears);
+			} else if (uri.equals("/api/tags")) {
+				return cached("tags", this::writeTags);
+			} else if (uri.equals("/api/photos")) {
+				return photos(session.getParameters());
+			}
+			return error(Response.Status.NOT_FOUND, "Not found");
+		} catch (IllegalArgumentException e) {
+			return error(Response.Status.BAD_REQUEST, e.getMessage());
+		} catch (IOException e) {
+			log.warn("Cannot answer '" + uri + "': " + e.getMessage());
+			return error(Response.Status.INTERNAL_ERROR, e.getMessage());
+		}
+	}
+
+	/**
+	 * Stop writing streamed answers.
+	 */
+	public void shutdown() {
+		this.streams.shutdownNow();
+	}
+
+	private Response photos(Map<String, List<String>> params) throws IOException {
+		String q = param(params, "q");
+		if ((q == null) || q.trim().isEmpty()) {
+			throw new IllegalArgumentException("Parameter q is missing");
+		}
+		TagQuery query = TagQuery.parse(q);
+		String page = param(params, "page");
+		if (page == null) {
+			TagQueryEngine.Result result = this.engine.execute(query);
+			return streamed(gen -> writeAll(gen, query, result));
+		}
+		int p = number(page, "page");
+		int size = number(param(params, "size") == null ? "100" : param(params, "size"), "size");
+		if (p < 0) {
+			throw new IllegalArgumentException("page must not be negative");
+		}
+		if ((size < 1) || (size > MAX_PAGE_SIZE)) {
+			throw new IllegalArgumentException("size must be between 1 and " + MAX_PAGE_SIZE);
+		}
+		return cached("photos|" + query + "|" + p + "|" + size, gen -> writePage(gen, query, p, size));
+	}
+
+	private void writeYears(JsonGenerator gen) throws IOException {
+		gen.writeStartArray();
+		for (Document d : this.tcol.find(regex("tag", "^[0-9]{4}$")).projection(fields(include("tag"), excludeId()))
+				.sort(ascending("tag"))) {
+			gen.writeString(d.getString("tag"));
+		}
+		gen.writeEndArray();
+	}
+
+	private void writeTags(JsonGenerator gen) throws IOException {
+		gen.writeStartArray();
+		for (Document d : this.tcol.find().projection(fields(include("tag", "count"), excludeId()))
+				.sort(ascending("tag"))) {
+			gen.writeStartObject();
+			gen.writeStringField("tag", d.getString("tag"));
+			gen.writeNumberField("count", d.getInteger("count", 0));
+			gen.writeEndObject();
+		}
+		gen.writeEndArray();
+	}
+
+	private void writePage(JsonGenerator gen, TagQuery query, int page, int size) throws IOException {
+		TagQueryEngine.Result result = this.engine.execute(query);
+		gen.writeStartObject();
+		gen.writeStringField("query", query.toString());
+		gen.writeNumberField("total", result.size());
+		gen.writeNumberField("page", page);
+		gen.writeNumberField("size", size);
+		gen.writeArrayFieldStart("photos");
+		writePhotos(gen, result.pageOrdinals(page, size));
+		gen.writeEndArray();
+		gen.writeEndObject();
+	}
+
+	private void writeAll(JsonGenerator gen, TagQuery query, TagQueryEngine.Result result) throws IOException {
+		gen.writeStartObject();
+		gen.writeStringField("query", query.toString());
+		gen.writeNumberField("total", result.size());
+		gen.writeArrayFieldStart("photos");
+		List<Integer> chunk = new ArrayList<>(PhotoLoader.CHUNK_SIZE);
+		Iterator<Integer> it = result.getOrdinals().iterator();
+		while (it.hasNext()) {
+			chunk.add(it.next());
+			if ((chunk.size() == PhotoLoader.CHUNK_SIZE) || !it.hasNext()) {
+				writePhotos(gen, chunk);
+				chunk.clear();
+				gen.flush();
+			}
+		}
+		gen.writeEndArray();
+		gen.writeEndObject();
+	}
+
+	/**
+	 * Write the photos with the ordinals as they come from the database.
+	 */
+	private void writePhotos(JsonGenerator gen, List<Integer> ordinals) throws IOException {
+		if (ordinals.isEmpty()) {
+			return;
+		}
+		try (MongoCursor<Document> cursor = this.pcol.find(in("ordinal", ordinals)).projection(PhotoLoader.PROJECTION)
+				.sort(ascending("creationDate")).cursor()) {
+			while (cursor.hasNext()) {
+				Document d = cursor.next();
+				String id = d.getString("_id");
+				gen.writeStartObject();
+				gen.writeStringField("id", id);
+				gen.writeStringField("tags", d.getString("tags"));
+				gen.writeStringField("origFilename", d.getString("origFilename"));
+				gen.writeNumberField("creationDate", number(d.get("creationDate")));
+				gen.writeNumberField("photoWidth", number(d.get("photoWidth")));
+				gen.writeNumberField("photoHeight", number(d.get("photoHeight")));
+				gen.writeNumberField("thumbWidth", number(d.get("thumbWidth")));
+				gen.writeNumberField("thumbHeight", number(d.get("thumbHeight")));
+				gen.writeStringField("original", "/originals/" + id + ".jpg");
+				gen.writeStringField("photo", "/photos/" + id + ".jpg");
+				gen.writeStringField("thumb", "/thumbs/" + id + ".jpg");
+				gen.writeEndObject();
+			}
+		}
+	}
+
+	/**
+	 * Answer from the cache, or write the answer and keep it.
+	 */
+	private Response cached(String key, Body body) throws IOException {
+		byte[] json;
+		int gen;
+		synchronized (this) {
+			checkGeneration();
+			json = this.cache.get(key);
+			gen = this.generation;
+		}
+		if (json == null) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (JsonGenerator g = generator(out)) {
+				body.write(g);
+			}
+			json = out.toByteArray();
+			put(key, json, gen);
+		}
+		return NanoHTTPD.newFixedLengthResponse(Response.Status.OK, MIME_JSON, new ByteArrayInputStream(json),
+				json.length);
+	}
+
+	/**
+	 * Write the answer on another thread while the response sends it.
+	 */
+	private Response streamed(Body body) throws IOException {
+		PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+		PipedOutputStream out = new PipedOutputStream(in);
+		this.streams.execute(() -> {
+			try (JsonGenerator gen = generator(out)) {
+				body.write(gen);
+			} catch (IOException e) {
+				// the client went away
+				log.debug("Stopped streaming: " + e.getMessage());
+			} catch (RuntimeException e) {
+				log.warn("Cannot stream the answer: " + e.getMessage());
+				try {
+					out.close();
+				} catch (IOException ex) {
+					// nothing more to do
+				}
+			}
+		});
+		return NanoHTTPD.newChunkedResponse(Response.Status.OK, MIME_JSON, in);
+	}
+
+	/**
+	 * Forget all answers when the tags of any photo changed since the last
+	 * check.
+	 */
+	private void checkGeneration() {
+		long now = System.currentTimeMillis();
+		if ((now - this.checked) < this.checkMillis) {
+			return;
+		}
+		this.checked = now;
+		int current = this.counters.current(Counters.GENERATION);
+		if (current != this.generation) {
+			this.cache.clear();
+			this.bytes = 0;
+			this.generation = current;
+		}
+	}
+
+	/**
+	 * Keep an answer, unless the tags changed while it was written.
+	 */
+	private synchronized void put(String key, byte[] json, int gen) {
+		if ((gen != this.generation) || (json.length > (this.maxBytes / 4))) {
+			return;
+		}
+		byte[] old = this.cache.put(key, json);
+		if (old != null) {
+			this.bytes -= old.length;
+		}
+		this.bytes += json.length;
+		Iterator<Map.Entry<String, byte[]>> it = this.cache.entrySet().iterator();
+		while ((this.bytes > this.maxBytes) && it.hasNext()) {
+			this.bytes -= it.next().getValue().length;
+			it.remove();
+		}
+	}
+
+	private static JsonGenerator generator(OutputStream out) throws IOException {
+		return Utils.getMapper().getFactory().createGenerator(out, JsonEncoding.UTF8);
+	}
+
+	private static Response error(Response.IStatus status, String message) {
+		try {
+			byte[] json = Utils.writer().writeValueAsBytes(Collections.singletonMap("error", message));
+			return NanoHTTPD.newFixedLengthResponse(status, MIME_JSON, new ByteArrayInputStream(json), json.length);
+		} catch (IOException e) {
+			return NanoHTTPD.newFixedLengthResponse(status, NanoHTTPD.MIME_PLAINTEXT, message);
+		}
+	}
+
+	private static String param(Map<String, List<String>> params, String name) {
+		List<String> values = params.get(name);
+		return (values == null) || values.isEmpty() ? null : values.get(0);
+	}
+
+	private static int number(String value, String name) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " is not a number: " + value);
+		}
+	}
+
+	private static long number(Object value) {
+		return value instanceof Number ? ((Number) value).longValue() : 0;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.include;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import fi.iki.elonen.NanoHTTPD;
+import lombok.extern.slf4j.Slf4j;
+import nl.das.tagphotos.model.Photo;
+
+/**
+ * Serves the originals, photos and thumbs of the album over HTTP:
+ * <ul>
+ * <li>GET /originals/&lt;id&gt;.jpg</li>
+ * <li>GET /photos/&lt;id&gt;.jpg</li>
+ * <li>GET /thumbs/&lt;id&gt;.jpg</li>
+ * <li>the JSON API under /api, see {@link AlbumApi}</li>
+ * </ul>
+ * The files never change after the import, so they are sent with a strong
+ * ETag (the checksum of an original, the id and kind of a rendition) and may
+ * be cached forever. Conditional requests are answered with 304 and a Range
+ * request with only the bytes asked for. The files are streamed from disk.
+ * <p>
+ * Connections are handled by a fixed number of threads with a bounded queue
+ * in front of them, instead of a thread per connection; connections that do
+ * not fit in the queue are closed.
+ */
+@Slf4j
+public class AlbumServer extends NanoHTTPD {
+
+	private static final Pattern ROUTE = Pattern.compile("^/(originals|photos|thumbs)/([0-9a-fA-F-]{36})\\.jpg$");
+	private static final Pattern RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+	private static final String MIME_JPEG = "image/jpeg";
+	private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	private final MongoCollection<Photo> pcol;
+	private final AlbumApi api;
+	private final BoundedRunner runner;
+	private final int timeout;
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf     configuration properties
+	 * @param database MongoDatabase object
+	 */
+	public AlbumServer(Properties conf, MongoDatabase database) {
+		super(conf.getProperty("server.host"), Integer.parseInt(conf.getProperty("server.port", "8080")));
+		this.pcol = database.getCollection("photos", Photo.class);
+		this.api = new AlbumApi(conf, database);
+		this.timeout = Integer.parseInt(conf.getProperty("server.timeout.ms", "5000"));
+		this.runner = new BoundedRunner(Integer.parseInt(conf.getProperty("server.threads", "16")),
+				Integer.parseInt(conf.getProperty("server.queue", "64")));
+		setAsyncRunner(this.runner);
+	}
+
+	/**
+	 * Start the server and stop it when the program stops.
+	 *
+	 * @param conf     configuration properties
+	 * @param database MongoDatabase object
+	 * @return the server
+	 */
+	public static AlbumServer run(Properties conf, MongoDatabase database) {
+		AlbumServer server = new AlbumServer(conf, database);
+		try {
+			server.start(server.timeout, false);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "album-server-stop"));
+		log.info("Album server listening on port " + server.getListeningPort());
+		return server;
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		this.runner.shutdown();
+		this.api.shutdown();
+	}
+
+	@Override
+	public Response serve(IHTTPSession session) {
+		if ((session.getMethod() != Method.GET) && (session.getMethod() != Method.HEAD)) {
+			return newFixedLengthResponse(Response.Status.METHOD_NOT_ALLOWED, MIME_PLAINTEXT, "Method not allowed");
+		}
+		if (session.getUri().startsWith("/api/")) {
+			return this.api.serve(session);
+		}
+		Matcher m = ROUTE.matcher(session.getUri());
+		if (!m.matches()) {
+			return notFound();
+		}
+		String kind = m.group(1);
+		String id = m.group(2).toLowerCase();
+		Photo photo = this.pcol.find(eq("_id", id)).projection(include("path", "hash")).first();
+		if (photo == null) {
+			return notFound();
+		}
+		Path file = Paths.get(photo.getPath(), kind, id + ".jpg");
+		String etag = "\"" + (("originals".equals(kind) && (photo.getHash() != null)) ? photo.getHash() : id + "-" + kind)
+				+ "\"";
+		try {
+			return serveFile(session, file, etag);
+		} catch (IOException e) {
+			log.warn("Cannot serve '" + file + "': " + e.getMessage());
+			return notFound();
+		}
+	}
+
+	private Response serveFile(IHTTPSession session, Path file, String etag) throws IOException {
+		String ifNoneMatch = session.getHeaders().get("if-none-match");
+		if ((ifNoneMatch != null) && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag))) {
+			return cacheable(newFixedLengthResponse(Response.Status.NOT_MODIFIED, MIME_JPEG, ""), etag);
+		}
+		long size = Files.size(file);
+		long[] range = null;
+		String ifRange = session.getHeaders().get("if-range");
+		if ((ifRange == null) || ifRange.trim().equals(etag)) {
+			range = range(session.getHeaders().get("range"), size);
+		}
+		if ((range != null) && (range.length == 0)) {
+			Response r = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT,
+					"Range not satisfiable");
+			r.addHeader("Content-Range", "bytes */" + size);
+			return r;
+		}
+		long start = range == null ? 0 : range[0];
+		long length = range == null ? size : (range[1] - range[0]) + 1;
+		FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+		ch.position(start);
+		// the response reads exactly length bytes and closes the channel
+		Response r = newFixedLengthResponse(range == null ? Response.Status.OK : Response.Status.PARTIAL_CONTENT,
+				MIME_JPEG, Channels.newInputStream(ch), length);
+		if (range != null) {
+			r.addHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+		}
+		r.addHeader("Accept-Ranges", "bytes");
+		return cacheable(r, etag);
+	}
+
+	/**
+	 * Parse a Range header. Only a single range is supported; for anything
+	 * else the whole file is sent, as HTTP allows.
+	 *
+	 * @param header the Range header or null
+	 * @param size   the size of the file
+	 * @return null to send the whole file, the first and last byte to send, or an
+	 *         empty array when the range is not satisfiable
+	 */
+	static long[] range(String header, long size) {
+		if (header == null) {
+			return null;
+		}
+		Matcher m = RANGE.matcher(header.trim());
+		if (!m.matches() || (m.group(1).isEmpty() && m.group(2).isEmpty())) {
+			return null;
+		}
+		try {
+			long first;
+			long last;
+			if (m.group(1).isEmpty()) {
+				// the last bytes
+				long suffix = Long.parseLong(m.group(2));
+				if (suffix == 0) {
+					return new long[0];
+				}
+				first = Math.max(0, size - suffix);
+				last = size - 1;
+			} else {
+				first = Long.parseLong(m.group(1));
+				last = m.group(2).isEmpty() ? size - 1 : Math.min(Long.parseLong(m.group(2)), size - 1);
+				if (last < first) {
+					return first >= size ? new long[0] : null;
+				}
+			}
+			if (first >= size) {
+				return new long[0];
+			}
+			return new long[] { first, last };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Response cacheable(Response r, String etag) {
+		r.addHeader("ETag", etag);
+		r.addHeader("Cache-Control", CACHE_CONTROL);
+		return r;
+	}
+
+	private static Response notFound() {
+		return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not found");
+	}
+
+	/**
+	 * Runs the connections on a fixed number of threads. A connection waits in
+	 * a bounded queue when all threads are busy and is closed when the queue is
+	 * full.
+	 */
+	static class BoundedRunner implements AsyncRunner {
+		private final ThreadPoolExecutor executor;
+		private final List<ClientHandler> handlers = Collections.synchronizedList(new ArrayList<>());
+
+		BoundedRunner(int threads, int queue) {
+			AtomicInteger count = new AtomicInteger();
+			this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(queue), r -> {
+						Thread t = new Thread(r, "album-server-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+		}
+
+		@Override
+		public void exec(ClientHandler handler) {
+			this.handlers.add(handler);
+			try {
+				this.executor.execute(handler);
+			} catch (RejectedExecutionException e) {
+				log.warn("Too many connections, closing a new one");
+				this.handlers.remove(handler);
+				handler.close();
+			}
+		}
+
+		@Override
+		public void closed(ClientHandler handler) {
+			this.handlers.remove(handler);
+		}
+
+		@Override
+		public void closeAll() {
+			List<ClientHandler> open;
+			synchronized (this.handlers) {
+				open = new ArrayList<>(this.handlers);
+			}
+			for (ClientHandler handler : open) {
+				handler.close();
+			}
+		}
+
+		void shutdown() {
+			this.executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.das.tagphotos.model.Photo;
+
+/**
+ * Collects the database writes of a number of imported photos and writes them
+ * with one unordered bulk write per collection. The tag changes are coalesced
+ * per tag, so a tag shared by all photos of the batch, like the year, is
+ * written once per batch instead of once per photo.
+ * <p>
+ * The files of the new photos are written under a temporary name and renamed
+ * only after the database writes, so a photo in the database never points to
+ * a half written file, and the files of a batch that failed are easy to tell
+ * apart, see {@link Reconciler}.
+ */
+@Slf4j
+public class CommitBatch {
+
+	private final MongoDatabase database;
+	private final TagStore tagStore;
+	private final Counters counters;
+	/** All items in input order, including the ones that are not written */
+	private final List<ImportItem> items = new ArrayList<>();
+	private final List<Photo> inserts = new ArrayList<>();
+	/** The items of the inserts, in the same order */
+	private final List<ImportItem> inserted = new ArrayList<>();
+	private final List<Photo> deletes = new ArrayList<>();
+	private final Map<String, List<Photo>> tagsAdded = new LinkedHashMap<>();
+	private final Map<String, List<Photo>> tagsRemoved = new LinkedHashMap<>();
+	private long started;
+
+	CommitBatch(MongoDatabase database, TagStore tagStore) {
+		this.database = database;
+		this.tagStore = tagStore;
+		this.counters = new Counters(database);
+	}
+
+	/**
+	 * Add an item that is not written, so it is reported in order with the rest.
+	 *
+	 * @param item the item
+	 */
+	void pass(ImportItem item) {
+		touch();
+		this.items.add(item);
+	}
+
+	/**
+	 * Add a photo to insert.
+	 *
+	 * @param item  the item the photo was imported from
+	 * @param photo the photo
+	 */
+	void insert(ImportItem item, Photo photo) {
+		touch();
+		this.items.add(item);
+		this.inserts.add(photo);
+		this.inserted.add(item);
+		for (String tag : TagStore.split(photo.getTags())) {
+			this.tagsAdded.computeIfAbsent(tag, t -> new ArrayList<>()).add(photo);
+		}
+	}
+
+	/**
+	 * Add a photo to delete, together with its files once the batch is written.
+	 *
+	 * @param photo the photo
+	 */
+	void delete(Photo photo) {
+		touch();
+		this.deletes.add(photo);
+		for (String tag : TagStore.split(photo.getTags())) {
+			this.tagsRemoved.computeIfAbsent(tag, t -> new ArrayList<>()).add(photo);
+		}
+	}
+
+	/**
+	 * @return the number of items in the batch
+	 */
+	int size() {
+		return this.items.size();
+	}
+
+	/**
+	 * @return the time in milliseconds since the first item was added, 0 if
+	 *         empty
+	 */
+	long age() {
+		return this.items.isEmpty() ? 0 : (System.nanoTime() - this.started) / 1_000_000L;
+	}
+
+	/**
+	 * Write the batch. If a database write fails, the photos of the batch that
+	 * were already written are deleted again and all photos of the batch are
+	 * marked as failed, so importing the files again imports them in full
+	 * instead of skipping them as unchanged.
+	 *
+	 * @return the items of the batch in input order
+	 */
+	List<ImportItem> flush() {
+		boolean written = false;
+		try {
+			this.counters.assignOrdinals(this.inserts);
+			writePhotos();
+			this.tagStore.update(this.tagsAdded, this.tagsRemoved);
+			written = true;
+		} catch (RuntimeException e) {
+			// the files of the batch keep their temporary names; reconcile removes
+			// them, or renames them when their photo was written after all
+			log.error("Commit of a batch of " + this.inserts.size() + " photos failed: " + e.getMessage());
+			undo();
+			for (ImportItem item : this.items) {
+				if (item.isImported() && !item.isSkipped()) {
+					item.error = e;
+				}
+			}
+		}
+		if (written) {
+			// the files of a photo only appear once it is committed
+			for (int i = 0; i < this.inserts.size(); i++) {
+				try {
+					ImageImporter.publish(this.inserts.get(i));
+				} catch (IOException e) {
+					log.error("Cannot rename the files of photo " + this.inserts.get(i).getId()
+							+ ", run reconcile: " + e.getMessage());
+					this.inserted.get(i).error = e;
+				}
+			}
+			for (Photo p : this.deletes) {
+				try {
+					ImageImporter.deleteFiles(p);
+				} catch (IOException e) {
+					log.warn("Cannot delete the files of replaced photo " + p.getId() + ", run reconcile: "
+							+ e.getMessage());
+				}
+			}
+			log.debug("Committed " + this.inserts.size() + " photos, " + this.deletes.size() + " replaced and "
+					+ (this.tagsAdded.size() + this.tagsRemoved.size()) + " tag updates");
+		}
+		List<ImportItem> done = new ArrayList<>(this.items);
+		this.items.clear();
+		this.inserts.clear();
+		this.inserted.clear();
+		this.deletes.clear();
+		this.tagsAdded.clear();
+		this.tagsRemoved.clear();
+		return done;
+	}
+
+	/**
+	 * Remove what a failed commit may have written of the new photos: a photo
+	 * left in the database with its checksum would make the next import skip
+	 * the file, while its tags are incomplete.
+	 */
+	private void undo() {
+		if (this.inserts.isEmpty()) {
+			return;
+		}
+		List<String> ids = new ArrayList<>();
+		for (Photo p : this.inserts) {
+			ids.add(p.getId());
+		}
+		try {
+			this.database.getCollection("photos", Photo.class).deleteMany(in("_id", ids));
+			this.tagStore.update(Collections.emptyMap(), this.tagsAdded);
+		} catch (RuntimeException e) {
+			log.error("Cannot remove the photos of the failed batch: " + e.getMessage());
+		}
+	}
+
+	private void writePhotos() {
+		List<WriteModel<Photo>> models = new ArrayList<>();
+		for (Photo p : this.deletes) {
+			models.add(new DeleteOneModel<>(eq("_id", p.getId())));
+		}
+		ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+		for (Photo p : this.inserts) {
+			models.add(new ReplaceOneModel<>(eq("_id", p.getId()), p, upsert));
+		}
+		if (!models.isEmpty()) {
+			MongoCollection<Photo> pcol = this.database.getCollection("photos", Photo.class);
+			pcol.bulkWrite(models, new BulkWriteOptions().ordered(false));
+		}
+	}
+
+	private void touch() {
+		if (this.items.isEmpty()) {
+			this.started = System.nanoTime();
+		}
+	}
+}
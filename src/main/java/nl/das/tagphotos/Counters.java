@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.inc;
+
+import java.util.List;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+
+import nl.das.tagphotos.model.Photo;
+
+/**
+ * Hands out numbers from named counters in the counters collection. A range
+ * of numbers is reserved with one atomic $inc, so several importers never
+ * get the same number.
+ */
+public class Counters {
+
+	/** The counter of the photo ordinals */
+	public static final String PHOTO = "photo";
+	/**
+	 * Counted up on every change of the tags of the photos, so readers that
+	 * keep answers can see that they are stale
+	 */
+	public static final String GENERATION = "generation";
+
+	private final MongoCollection<Document> ccol;
+
+	/**
+	 * Constructor
+	 *
+	 * @param database MongoDatabase object
+	 */
+	public Counters(MongoDatabase database) {
+		this.ccol = database.getCollection("counters");
+	}
+
+	/**
+	 * Reserve a range of numbers. The first number ever handed out is 1.
+	 *
+	 * @param name  the name of the counter
+	 * @param count the number of numbers needed
+	 * @return the first number of the range
+	 */
+	public int reserve(String name, int count) {
+		Document counter = this.ccol.findOneAndUpdate(eq("_id", name), inc("value", count),
+				new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+		return (counter.getInteger("value") - count) + 1;
+	}
+
+	/**
+	 * @param name the name of the counter
+	 * @return the last number handed out, 0 if none
+	 */
+	public int current(String name) {
+		Document counter = this.ccol.find(eq("_id", name)).first();
+		return counter == null ? 0 : counter.getInteger("value");
+	}
+
+	/**
+	 * Give the photos that do not have one an ordinal.
+	 *
+	 * @param photos the photos
+	 */
+	public void assignOrdinals(List<Photo> photos) {
+		int count = 0;
+		for (Photo p : photos) {
+			if (p.getOrdinal() == 0) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+		int next = reserve(PHOTO, count);
+		for (Photo p : photos) {
+			if (p.getOrdinal() == 0) {
+				p.setOrdinal(next++);
+			}
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Properties;
+
+/**
+ * Admits decodes of originals within a memory budget. Before a decode starts
+ * the memory it will need is reserved; when the budget is used up the decode
+ * waits until others release their memory.
+ * <p>
+ * Waiting decodes are admitted in arrival order, but a smaller decode that
+ * fits may go ahead of a large one that does not. To prevent a large
+ * panorama from waiting forever, the first waiting decode can be passed only
+ * {@value #MAX_BYPASS} times. A request larger than the whole budget is
+ * reduced to the budget, so it runs on its own.
+ */
+public class DecodeScheduler {
+
+	/** Bytes per decoded pixel: the RGB raster plus the ImageJ ColorProcessor made from it */
+	static final int BYTES_PER_PIXEL = 3 + 4;
+	static final int MAX_BYPASS = 8;
+
+	private final long budget;
+	private final LinkedList<Waiter> waiters = new LinkedList<>();
+	private long reserved;
+	private int peakQueueDepth;
+	private long peakReserved;
+
+	private static class Waiter {
+		final long bytes;
+		boolean admitted;
+		int bypassed;
+
+		Waiter(long bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf configuration properties
+	 */
+	public DecodeScheduler(Properties conf) {
+		this(conf.getProperty("import.decode.budget.mb") != null
+				? Long.parseLong(conf.getProperty("import.decode.budget.mb")) * 1024L * 1024L
+				: Runtime.getRuntime().maxMemory() / 2);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param budget the number of bytes that may be reserved at the same time
+	 */
+	public DecodeScheduler(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Estimate the memory needed to decode an image.
+	 *
+	 * @param width  width of the original
+	 * @param height height of the original
+	 * @param scale  the subsampling factor used while decoding
+	 * @return the number of bytes
+	 */
+	public static long estimate(int width, int height, int scale) {
+		long w = (width + scale - 1) / scale;
+		long h = (height + scale - 1) / scale;
+		return w * h * BYTES_PER_PIXEL;
+	}
+
+	/**
+	 * Reserve memory, waiting until it is available.
+	 *
+	 * @param bytes the number of bytes needed
+	 * @return the number of bytes reserved, to be passed to {@link #release}
+	 * @throws InterruptedException
+	 */
+	public synchronized long reserve(long bytes) throws InterruptedException {
+		Waiter w = new Waiter(Math.max(0, Math.min(bytes, this.budget)));
+		this.waiters.add(w);
+		admit();
+		this.peakQueueDepth = Math.max(this.peakQueueDepth, this.waiters.size());
+		try {
+			while (!w.admitted) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			if (w.admitted) {
+				release(w.bytes);
+			} else {
+				this.waiters.remove(w);
+				admit();
+			}
+			throw e;
+		}
+		return w.bytes;
+	}
+
+	/**
+	 * Release memory reserved before.
+	 *
+	 * @param bytes the number of bytes returned by {@link #reserve}
+	 */
+	public synchronized void release(long bytes) {
+		this.reserved -= bytes;
+		admit();
+	}
+
+	/**
+	 * @return the number of decodes waiting for memory
+	 */
+	public synchronized int getQueueDepth() {
+		return this.waiters.size();
+	}
+
+	/**
+	 * @return the number of bytes reserved by running decodes
+	 */
+	public synchronized long getReservedBytes() {
+		return this.reserved;
+	}
+
+	/**
+	 * @return the largest number of decodes that waited for memory at the same
+	 *         time since the last {@link #resetPeaks()}
+	 */
+	public synchronized int getPeakQueueDepth() {
+		return this.peakQueueDepth;
+	}
+
+	/**
+	 * @return the largest number of bytes reserved at the same time since the
+	 *         last {@link #resetPeaks()}
+	 */
+	public synchronized long getPeakReservedBytes() {
+		return this.peakReserved;
+	}
+
+	/**
+	 * Start measuring the peaks again, e.g. at the start of an import.
+	 */
+	public synchronized void resetPeaks() {
+		this.peakQueueDepth = this.waiters.size();
+		this.peakReserved = this.reserved;
+	}
+
+	/**
+	 * @return the memory budget in bytes
+	 */
+	public long getBudget() {
+		return this.budget;
+	}
+
+	private void admit() {
+		Waiter head = null;
+		Iterator<Waiter> it = this.waiters.iterator();
+		while (it.hasNext()) {
+			Waiter w = it.next();
+			if ((this.reserved + w.bytes) <= this.budget) {
+				this.reserved += w.bytes;
+				this.peakReserved = Math.max(this.peakReserved, this.reserved);
+				w.admitted = true;
+				it.remove();
+				if ((head != null) && (++head.bypassed >= MAX_BYPASS)) {
+					break;
+				}
+			} else if (head == null) {
+				// the first decode that has to wait
+				head = w;
+				if (head.bypassed >= MAX_BYPASS) {
+					break;
+				}
+			}
+		}
+		notifyAll();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finds the photos in folder trees, also in nested folders like
+ * DCIM/100CANON. Every folder is listed by its own fork/join task, so the
+ * subfolders are walked in parallel. A file is a photo when it starts with
+ * the JPEG marker bytes, whatever its name; hidden files and folders are
+ * skipped and symbolic links to folders are not followed.
+ * <p>
+ * The photos are handed to a consumer as soon as they are found, so an
+ * import can start before the walk is done.
+ */
+@Slf4j
+public class FolderDiscovery {
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf configuration properties
+	 */
+	public FolderDiscovery(Properties conf) {
+		this.pool = new ForkJoinPool(Integer.parseInt(conf.getProperty("import.discovery.threads",
+				"" + Runtime.getRuntime().availableProcessors())));
+	}
+
+	/**
+	 * Walk folder trees and hand every photo found to a consumer. Returns when
+	 * the walk is done.
+	 *
+	 * @param roots the folders to walk
+	 * @param found receives the photos, in parallel from several threads; the
+	 *              photos of one folder are handed over in name order
+	 */
+	public void walk(List<Path> roots, Consumer<Path> found) {
+		for (Path root : roots) {
+			this.pool.invoke(new Walk(root, found));
+		}
+	}
+
+	/**
+	 * Find all photos in folder trees.
+	 *
+	 * @param roots the folders to walk
+	 * @return the photos, sorted on path
+	 */
+	public List<Path> find(List<Path> roots) {
+		List<Path> photos = Collections.synchronizedList(new ArrayList<>());
+		long start = System.nanoTime();
+		walk(roots, photos::add);
+		List<Path> sorted = new ArrayList<>(photos);
+		Collections.sort(sorted);
+		log.debug("Found " + sorted.size() + " photos in " + ((System.nanoTime() - start) / 1_000_000L) + " ms");
+		return sorted;
+	}
+
+	/**
+	 * Stop the threads.
+	 */
+	public void shutdown() {
+		this.pool.shutdownNow();
+	}
+
+	/**
+	 * @param file a file
+	 * @return true if the file starts with the JPEG start of image marker
+	 */
+	public static boolean isJpeg(Path file) {
+		ByteBuffer head = ByteBuffer.allocate(3);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (head.hasRemaining() && (ch.read(head) >= 0)) {
+				// read until 3 bytes or the end of the file
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		return !head.hasRemaining() && ((head.get(0) & 0xFF) == 0xFF) && ((head.get(1) & 0xFF) == 0xD8)
+				&& ((head.get(2) & 0xFF) == 0xFF);
+	}
+
+	/**
+	 * Lists one folder and forks a task for every subfolder.
+	 */
+	private static class Walk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+		private final transient Consumer<Path> found;
+
+		Walk(Path dir, Consumer<Path> found) {
+			this.dir = dir;
+			this.found = found;
+		}
+
+		@Override
+		protected void compute() {
+			List<Path> files = new ArrayList<>();
+			List<Walk> subdirs = new ArrayList<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.dir)) {
+				for (Path entry : entries) {
+					if (entry.getFileName().toString().startsWith(".")) {
+						continue;
+					}
+					if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+						subdirs.add(new Walk(entry, this.found));
+					} else if (Files.isRegularFile(entry)) {
+						files.add(entry);
+					}
+				}
+			} catch (IOException e) {
+				log.warn("Cannot list '" + this.dir + "': " + e.getMessage());
+			}
+			for (Walk w : subdirs) {
+				w.fork();
+			}
+			Collections.sort(files);
+			for (Path file : files) {
+				if (isJpeg(file)) {
+					this.found.accept(file);
+				}
+			}
+			for (Walk w : subdirs) {
+				w.join();
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads the metadata of all files in a folder in parallel in the background,
+ * so browsing the folder does not have to read the files. The metadata is read
+ * through the {@link MetadataCache}, so a folder that was opened before is
+ * scanned without parsing the files again. Files without usable IPTC metadata
+ * are reported, before they are imported.
+ */
+@Slf4j
+public class FolderScanner {
+
+	private final List<Path> files;
+	private final int threads;
+	private final MetadataCache cache;
+	private final Map<Path, ImageMetadata> metadata = new ConcurrentHashMap<>();
+	/** The problem with a file, if any */
+	private final Map<Path, String> problems = new ConcurrentHashMap<>();
+	private final AtomicInteger scanned = new AtomicInteger();
+	private ExecutorService executor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param files the files to scan
+	 * @param conf  configuration properties
+	 */
+	public FolderScanner(List<Path> files, Properties conf) {
+		this.files = files;
+		this.threads = Integer.parseInt(conf.getProperty("import.scan.threads", "4"));
+		this.cache = MetadataCache.get(conf);
+	}
+
+	/**
+	 * Start the scan.
+	 *
+	 * @param done called on a scanner thread when all files are scanned
+	 */
+	public synchronized void start(Consumer<FolderScanner> done) {
+		AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(this.threads, r -> {
+			Thread t = new Thread(r, "folder-scan-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		long start = System.nanoTime();
+		for (Path file : this.files) {
+			this.executor.execute(() -> {
+				if (!this.metadata.containsKey(file)) {
+					scan(file);
+				}
+				if (this.scanned.incrementAndGet() == this.files.size()) {
+					log.info("Scanned " + this.files.size() + " files in " + ((System.nanoTime() - start) / 1_000_000L)
+							+ " ms, " + this.problems.size() + " with problems");
+					done.accept(this);
+				}
+			});
+		}
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Stop the scan.
+	 */
+	public synchronized void cancel() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Get the metadata of a file. If the file has not been scanned yet, it is
+	 * read now.
+	 *
+	 * @param file the file
+	 * @return the metadata, empty if the file cannot be read
+	 */
+	public ImageMetadata get(Path file) {
+		ImageMetadata meta = this.metadata.get(file);
+		return meta != null ? meta : scan(file);
+	}
+
+	/**
+	 * Read a file again, e.g. after its tags were changed.
+	 *
+	 * @param file the file
+	 * @return the new metadata
+	 */
+	public ImageMetadata rescan(Path file) {
+		return scan(file);
+	}
+
+	/**
+	 * @return the files with a problem, with the problem, in folder order
+	 */
+	public List<String> getProblems() {
+		List<String> list = new ArrayList<>();
+		for (Path file : this.files) {
+			String problem = this.problems.get(file);
+			if (problem != null) {
+				list.add(file.getFileName() + ": " + problem);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * @return the number of files scanned so far
+	 */
+	public int getScanned() {
+		return this.scanned.get();
+	}
+
+	private ImageMetadata scan(Path file) {
+		ImageMetadata meta;
+		try {
+			meta = this.cache.read(file);
+			String problem = check(meta);
+			if (problem != null) {
+				this.problems.put(file, problem);
+			} else {
+				this.problems.remove(file);
+			}
+		} catch (IOException | RuntimeException e) {
+			meta = new ImageMetadata();
+			this.problems.put(file, "cannot be read: " + e.getMessage());
+		}
+		this.metadata.put(file, meta);
+		return meta;
+	}
+
+	/**
+	 * @return what is wrong with the metadata for an import, null if nothing
+	 */
+	static String check(ImageMetadata meta) {
+		if (!meta.hasIptc()) {
+			return "no IPTC metadata";
+		}
+		if (meta.getKeywords().isEmpty()) {
+			return "no IPTC keywords";
+		}
+		// the first keyword is the year the photo is stored under
+		String year = meta.getKeywords().get(0);
+		if (!year.matches("\\d{4}")) {
+			return "first keyword '" + year + "' is not a year";
+		}
+		if ((meta.getDateCreated() == null) || !meta.getDateCreated().matches("\\d{8}")) {
+			return "no valid IPTC creation date";
+		}
+		return null;
+	}
+}
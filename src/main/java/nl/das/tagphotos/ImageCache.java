@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps decoded images in memory, up to a number of bytes, and decodes images
+ * in the background. The viewer asks for the image it shows and tells the
+ * cache which images it will probably show next; those are decoded ahead.
+ * Images the user has browsed past are not decoded anymore.
+ */
+@Slf4j
+public class ImageCache {
+
+	/**
+	 * Decodes an image file.
+	 */
+	@FunctionalInterface
+	public interface Decoder {
+		BufferedImage decode(String path) throws IOException;
+	}
+
+	private final long maxBytes;
+	private final Decoder decoder;
+	/** Decodes the images that are asked for */
+	private final ExecutorService foreground;
+	/** Decodes the images ahead */
+	private final ExecutorService background;
+	private final LinkedHashMap<String, BufferedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Future<?>> loading = new HashMap<>();
+	/** Waiting for an image that is being decoded */
+	private final Map<String, List<Consumer<BufferedImage>>> consumers = new HashMap<>();
+	/** Told on the event dispatch thread when an image is decoded */
+	private Consumer<String> listener;
+	private long bytes;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes the maximum size of the decoded images together
+	 * @param threads  the number of threads decoding images ahead
+	 * @param decoder  decodes an image file
+	 */
+	public ImageCache(long maxBytes, int threads, Decoder decoder) {
+		this.maxBytes = maxBytes;
+		this.decoder = decoder;
+		this.foreground = Executors.newSingleThreadExecutor(daemon("image-decode"));
+		this.background = Executors.newFixedThreadPool(threads, daemon("image-prefetch"));
+	}
+
+	/**
+	 * Constructor for a cache that decodes the images at full size with ImageIO.
+	 *
+	 * @param maxBytes the maximum size of the decoded images together
+	 * @param threads  the number of threads decoding images
+	 */
+	public ImageCache(long maxBytes, int threads) {
+		this(maxBytes, threads, path -> ImageIO.read(new File(path)));
+	}
+
+	/**
+	 * Get an image. If it is cached the consumer is called right away,
+	 * otherwise the image is decoded in the background and the consumer is
+	 * called on the event dispatch thread when it is ready.
+	 *
+	 * @param path     the image file
+	 * @param consumer receives the image, or null if it cannot be decoded
+	 */
+	public void get(String path, Consumer<BufferedImage> consumer) {
+		BufferedImage image;
+		synchronized (this) {
+			image = this.images.get(path);
+			if (image == null) {
+				this.misses++;
+				this.consumers.computeIfAbsent(path, p -> new ArrayList<>()).add(consumer);
+				Future<?> future = this.loading.get(path);
+				if ((future == null) || future.cancel(false)) {
+					// not decoded yet or still waiting behind other prefetches
+					this.loading.put(path, this.foreground.submit(() -> decode(path)));
+				}
+				return;
+			}
+			this.hits++;
+		}
+		consumer.accept(image);
+	}
+
+	/**
+	 * Get an image if it is decoded, without decoding it.
+	 *
+	 * @param path the image file
+	 * @return the image or null if it is not decoded
+	 */
+	public synchronized BufferedImage getIfPresent(String path) {
+		BufferedImage image = this.images.get(path);
+		if (image != null) {
+			this.hits++;
+		}
+		return image;
+	}
+
+	/**
+	 * @param listener called on the event dispatch thread with the path of every
+	 *                 image that is decoded, also the ones decoded ahead
+	 */
+	public synchronized void setListener(Consumer<String> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Decode images ahead. Prefetches that are still waiting for an image that
+	 * is not in the list anymore are cancelled.
+	 *
+	 * @param paths the images that will probably be shown next, the most likely
+	 *              first
+	 */
+	public synchronized void prefetch(List<String> paths) {
+		Iterator<Map.Entry<String, Future<?>>> it = this.loading.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Future<?>> e = it.next();
+			if (!paths.contains(e.getKey()) && !this.consumers.containsKey(e.getKey()) && e.getValue().cancel(false)) {
+				it.remove();
+			}
+		}
+		for (String path : paths) {
+			if (!this.images.containsKey(path) && !this.loading.containsKey(path)) {
+				this.loading.put(path, this.background.submit(() -> decode(path)));
+			}
+		}
+	}
+
+	/**
+	 * @param path the image file
+	 * @return true if the image is decoded
+	 */
+	public synchronized boolean contains(String path) {
+		return this.images.containsKey(path);
+	}
+
+	/**
+	 * Stop decoding. The cache can not be used anymore.
+	 */
+	public void shutdown() {
+		this.foreground.shutdownNow();
+		this.background.shutdownNow();
+	}
+
+	/**
+	 * @return the number of times an image was asked for that was decoded
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return the number of times the user had to wait for an image
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return the number of bytes used by the decoded images
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	private void decode(String path) {
+		BufferedImage image = null;
+		try {
+			image = this.decoder.decode(path);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Cannot decode '" + path + "': " + e.getMessage());
+		}
+		List<Consumer<BufferedImage>> waiting;
+		Consumer<String> onDecoded;
+		synchronized (this) {
+			this.loading.remove(path);
+			waiting = this.consumers.remove(path);
+			if (image != null) {
+				put(path, image);
+			}
+			onDecoded = this.listener;
+		}
+		if ((onDecoded != null) && (image != null)) {
+			SwingUtilities.invokeLater(() -> onDecoded.accept(path));
+		}
+		if (waiting != null) {
+			BufferedImage decoded = image;
+			SwingUtilities.invokeLater(() -> waiting.forEach(c -> c.accept(decoded)));
+		}
+	}
+
+	private void put(String path, BufferedImage image) {
+		long size = sizeOf(image);
+		if (size > this.maxBytes) {
+			return;
+		}
+		BufferedImage old = this.images.put(path, image);
+		if (old != null) {
+			this.bytes -= sizeOf(old);
+		}
+		this.bytes += size;
+		Iterator<Map.Entry<String, BufferedImage>> it = this.images.entrySet().iterator();
+		while ((this.bytes > this.maxBytes) && it.hasNext()) {
+			this.bytes -= sizeOf(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	private static ThreadFactory daemon(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	private static long sizeOf(BufferedImage image) {
+		return (long) image.getWidth() * image.getHeight() * 4;
+	}
+}
@@ -8,32 +8,25 @@
 
 package nl.das.tagphotos;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Filters.exists;
 
 import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.Properties;
-import java.util.Set;
 import java.util.UUID;
 
-import com.icafe4j.image.meta.Metadata;
-import com.icafe4j.image.meta.MetadataType;
-import com.icafe4j.image.meta.exif.Exif;
-import com.icafe4j.image.meta.exif.ExifTag;
-import com.icafe4j.image.meta.iptc.IPTC;
-import com.icafe4j.image.meta.iptc.IPTCApplicationTag;
-import com.icafe4j.image.meta.iptc.IPTCDataSet;
-import com.icafe4j.image.meta.iptc.IPTCTag;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Indexes;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -47,10 +40,24 @@ import nl.das.tagphotos.model.TagIndex;
 @Slf4j
 public class ImageImporter {
 
+	static final int PHOTO_WIDTH = 1024;
+	static final int PHOTO_HEIGHT = 768;
+	static final int THUMB_WIDTH = 150;
+	static final int THUMB_HEIGHT = 150;
+	/** The folders of a year with the files of a photo */
+	static final String[] KINDS = { "originals", "photos", "thumbs" };
+	/** Suffix of the files of a photo that is not committed yet */
+	static final String TEMP = ".tmp.jpg";
+
 	private String photosPath;
 	private String panoramasPath;
 	private String videosPath;
 	private MongoDatabase database;
+	private OriginalStore originals;
+	private DecodeScheduler scheduler;
+	private TagStore tagStore;
+	private Counters counters;
+	private MetadataCache metadataCache;
 
 	/**
 	 * Constructor
@@ -72,6 +79,16 @@ public class ImageImporter {
 		if (this.videosPath.lastIndexOf('/') != (this.videosPath.length() - 1)) {
 			this.videosPath += "/";
 		}
+		this.originals = new OriginalStore(conf);
+		this.scheduler = new DecodeScheduler(conf);
+		this.tagStore = new TagStore(database);
+		this.counters = new Counters(database);
+		this.metadataCache = MetadataCache.get(conf);
+		MongoCollection<Photo> pcol = this.database.getCollection("photos", Photo.class);
+		pcol.createIndex(Indexes.ascending("hash"));
+		pcol.createIndex(Indexes.ascending("origPath"));
+		pcol.createIndex(Indexes.ascending("origFilename"));
+		pcol.createIndex(Indexes.ascending("ordinal"));
 	}
 
 	/**
@@ -82,110 +99,287 @@ public class ImageImporter {
 	 */
 	public String importImage(String path) {
 		try {
-			String name = Paths.get(path).getFileName().toString();
-			String id = UUID.randomUUID().toString();
-			IPTC iptc = (IPTC) Metadata.readMetadata(path).get(MetadataType.IPTC);
-			Exif exif = (Exif) Metadata.readMetadata(path).get(MetadataType.EXIF);
-			String tags = getKeywords(iptc);
-			log.debug("Importing photo '" + name + "' with id " + id + " and tags '" + tags + "'");
-			String year = tags.split(";")[0];
-			ImagePlus org = IJ.openImage(path);
-			// Check if all folders are there. If not create them
-			Files.createDirectories(Paths.get(this.photosPath + year + "/originals/"));
-			Files.createDirectories(Paths.get(this.photosPath + year + "/photos/"));
-			Files.createDirectories(Paths.get(this.photosPath + year + "/thumbs/"));
-			// Check if photo was previously imported. If so, remove it first
-			String oldid = findAndRemove(name);
-			if (oldid != null) {
-				Files.deleteIfExists(Paths.get(this.photosPath + year + "/originals/" + oldid + ".jpg"));
-				Files.deleteIfExists(Paths.get(this.photosPath + year + "/photos/" + oldid + ".jpg"));
-				Files.deleteIfExists(Paths.get(this.photosPath + year + "/thumbs/" + oldid + ".jpg"));
+			ImportItem item = new ImportItem(0, Paths.get(path));
+			readMetadata(item);
+			if (item.isSkipped()) {
+				log.debug("Skipped photo '" + item.name + "': " + item.status);
+				return item.previous.getId();
+			}
+			decode(item);
+			resize(item);
+			write(item);
+			CommitBatch batch = newBatch();
+			commit(item, batch);
+			batch.flush();
+			if (item.error != null) {
+				throw new RuntimeException(item.error);
 			}
-			// Now save it
-			IJ.save(org, this.photosPath + year + "/originals/" + id + ".jpg");
-			ImagePlus photo = resize(768, 1024, org);
-			IJ.save(photo, this.photosPath + year + "/photos/" + id + ".jpg");
-			ImagePlus thumb = resize(150, 150, org);
-			IJ.save(thumb, this.photosPath + year + "/thumbs/" + id + ".jpg");
-			Photo p = new Photo();
-			p.setId(id);
-			p.setTags(tags);
-			p.setPath(this.photosPath + year);
-			p.setOrigFilename(name);
-			p.setOrigWidth((int) getWidthAndHeight(exif).getWidth());
-			p.setOrigHeight((int) getWidthAndHeight(exif).getHeight());
-			p.setPhotoHeight(photo.getHeight());
-			p.setPhotoWidth(photo.getWidth());
-			p.setThumbHeight(thumb.getHeight());
-			p.setThumbWidth(thumb.getWidth());
-			p.setCreationDate(getCreationDate(iptc));
-			MongoCollection<Photo> pcol = this.database.getCollection("photos", Photo.class);
-			save(p, pcol);
-			log.debug("Imported photo '" + name + "' with id " + id);
-			return id;
+			return item.id;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
 	/**
-	 * Retrieve the list of keywords from an IPTC metadata block.
+	 * Import stage 1: compute the checksum of the file to see if it has to be
+	 * imported at all, read the metadata and decide on the id and the year
+	 * folder of the photo. A photo is only imported when its metadata passes
+	 * the same check as in the import window, see {@link FolderScanner}: the
+	 * first keyword is the year folder, so a photo straight from the camera,
+	 * without keywords, fails.
 	 * 
-	 * @param meta the IPTC metadata block
-	 * @return
+	 * @param item the item to import
+	 * @throws IOException
+	 */
+	void readMetadata(ImportItem item) throws IOException {
+		item.name = item.path.getFileName().toString();
+		item.size = Files.size(item.path);
+		item.hash = OriginalStore.checksum(item.path);
+		classify(item);
+		if (item.isSkipped()) {
+			return;
+		}
+		item.meta = this.metadataCache.read(item.path);
+		String problem = FolderScanner.check(item.meta);
+		if (problem != null) {
+			throw new IOException("cannot be imported, " + problem);
+		}
+		item.id = UUID.randomUUID().toString();
+		item.tags = getKeywords(item.meta);
+		item.year = item.tags.split(";")[0];
+		log.debug("Importing photo '" + item.name + "' with id " + item.id + " and tags '" + item.tags + "'");
+	}
+
+	/**
+	 * Decide what to do with a file by looking for a photo with the same
+	 * checksum or imported from the same file.
+	 * 
+	 * @param item the item to import
 	 */
-	protected String getKeywords(IPTC meta) {
-		String tags = "";
-		Map<IPTCTag, List<IPTCDataSet>> dataSets = meta.getDataSets();
-		for (IPTCTag ds : dataSets.keySet()) {
-			if (ds == IPTCApplicationTag.KEY_WORDS) {
-				for (IPTCDataSet d : dataSets.get(ds)) {
-					tags += d.getDataAsString().toLowerCase() + ";";
-				}
+	void classify(ImportItem item) {
+		MongoCollection<Photo> pcol = this.database.getCollection("photos", Photo.class);
+		String origPath = item.path.toAbsolutePath().toString();
+		Photo same = pcol.find(eq("hash", item.hash)).first();
+		if (same != null) {
+			item.previous = same;
+			if (origPath.equals(same.getOrigPath())) {
+				item.status = ImportItem.Status.UNCHANGED;
+			} else {
+				item.status = ImportItem.Status.DUPLICATE;
+				log.warn("'" + origPath + "' has the same content as '"
+						+ (same.getOrigPath() != null ? same.getOrigPath() : same.getOrigFilename()) + "' (" + same.getId() + ")");
 			}
+			return;
+		}
+		Photo prev = pcol.find(eq("origPath", origPath)).first();
+		if (prev == null) {
+			// photos imported before the source path was recorded are matched on name
+			prev = pcol.find(and(eq("origFilename", item.name), exists("origPath", false))).first();
+		}
+		if (prev != null) {
+			item.previous = prev;
+			item.status = ImportItem.Status.CHANGED;
 		}
-		return tags.isEmpty() ? "" : tags.substring(0, tags.length() - 1);
 	}
 
 	/**
-	 * Retrieve the width and height from the EXIF metadata block.
+	 * Import stage 2: decode the original image at the smallest scale that is
+	 * still large enough for the web rendition. The memory for the decoded image
+	 * is reserved first, so parallel decodes of large originals stay within the
+	 * memory budget.
 	 * 
-	 * @param meta the EXIF metadata block
-	 * @return
+	 * @param item the item to import
+	 * @throws IOException
 	 */
-	protected Dimension getWidthAndHeight(Exif meta) {
-		String w = meta.getAsString(ExifTag.EXIF_IMAGE_WIDTH).replace("[", "").replace("]", "");
-		String h = meta.getAsString(ExifTag.EXIF_IMAGE_HEIGHT).replace("[", "").replace("]", "");
-		return new Dimension(Integer.parseInt(w), Integer.parseInt(h));
+	void decode(ImportItem item) throws IOException {
+		// the decoder allocates what the frame header says, the EXIF size may be stale
+		int w = item.meta.getFrameWidth() > 0 ? item.meta.getFrameWidth() : item.meta.getWidth();
+		int h = item.meta.getFrameHeight() > 0 ? item.meta.getFrameHeight() : item.meta.getHeight();
+		int scale = RenditionEngine.getScale(w, h, PHOTO_WIDTH, PHOTO_HEIGHT);
+		reserve(item, DecodeScheduler.estimate(w, h, scale));
+		try {
+			BufferedImage img = RenditionEngine.decode(item.path, PHOTO_WIDTH, PHOTO_HEIGHT);
+			item.image = new ImagePlus(item.name, img);
+		} catch (IOException e) {
+			// e.g. CMYK JPEGs are not supported by ImageIO
+			log.debug("Scaled decoding of '" + item.path + "' failed, decoding it fully: " + e.getMessage());
+			release(item);
+			reserve(item, DecodeScheduler.estimate(w, h, 1));
+			item.image = IJ.openImage(item.path.toString());
+		}
+		if (item.image == null) {
+			throw new IOException("Photo '" + item.path + "' could not be decoded");
+		}
 	}
 
 	/**
-	 * Retrieve the Creation Date of a photo from the given IPTC metadata block
+	 * Import stage 3: create the web rendition and derive the thumb from it.
 	 * 
-	 * @param meta the IPTC metadata block
-	 * @return
+	 * @param item the item to import
 	 */
-	protected long getCreationDate(IPTC meta) {
-		Map<IPTCTag, List<IPTCDataSet>> dataSets = meta.getDataSets();
-		String dt = null;
-		String tm = null;
-		for (IPTCTag ds : dataSets.keySet()) {
-			if (ds == IPTCApplicationTag.DATE_CREATED) {
-				dt = dataSets.get(ds).get(0).getDataAsString();
-			} else if (ds == IPTCApplicationTag.TIME_CREATED) {
-				tm = dataSets.get(ds).get(0).getDataAsString();
-			}
+	void resize(ImportItem item) {
+		item.photo = resize(PHOTO_HEIGHT, PHOTO_WIDTH, item.image);
+		item.image = null;
+		release(item);
+		item.thumb = resize(THUMB_HEIGHT, THUMB_WIDTH, item.photo);
+		item.photoWidth = item.photo.getWidth();
+		item.photoHeight = item.photo.getHeight();
+		item.thumbWidth = item.thumb.getWidth();
+		item.thumbHeight = item.thumb.getHeight();
+	}
+
+	/**
+	 * Reserve memory for decoding the item.
+	 */
+	private void reserve(ImportItem item, long bytes) throws IOException {
+		try {
+			item.reserved = this.scheduler.reserve(bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for memory to decode '" + item.path + "'", e);
+		}
+	}
+
+	/**
+	 * Release the memory reserved for decoding the item, if any.
+	 * 
+	 * @param item the item to import
+	 */
+	void release(ImportItem item) {
+		if (item.reserved > 0) {
+			this.scheduler.release(item.reserved);
+			item.reserved = 0;
+		}
+	}
+
+	/**
+	 * @return the scheduler that admits the decodes within the memory budget
+	 */
+	public DecodeScheduler getDecodeScheduler() {
+		return this.scheduler;
+	}
+
+	/**
+	 * Import stage 4: store the original as it is and encode and write the
+	 * renditions, under a temporary name.
+	 * 
+	 * @param item the item to import
+	 * @throws IOException
+	 */
+	void write(ImportItem item) throws IOException {
+		String folder = this.photosPath + item.year;
+		// Check if all folders are there. If not create them
+		Files.createDirectories(Paths.get(folder + "/originals/"));
+		Files.createDirectories(Paths.get(folder + "/photos/"));
+		Files.createDirectories(Paths.get(folder + "/thumbs/"));
+		// the files get their real names after the commit, see publish()
+		this.originals.store(item.path, Paths.get(folder + "/originals/" + item.id + TEMP), item.hash);
+		IJ.save(item.photo, folder + "/photos/" + item.id + TEMP);
+		IJ.save(item.thumb, folder + "/thumbs/" + item.id + TEMP);
+		item.photo = null;
+		item.thumb = null;
+	}
+
+	/**
+	 * Give the files written for a photo their real names, once the photo is
+	 * committed. Each file is renamed atomically, so a reader never sees half
+	 * a file.
+	 * 
+	 * @param p the photo
+	 * @throws IOException
+	 */
+	static void publish(Photo p) throws IOException {
+		for (String kind : KINDS) {
+			Path file = Paths.get(p.getPath(), kind, p.getId() + ".jpg");
+			Files.move(file.resolveSibling(p.getId() + TEMP), file, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Delete the files written for a photo that will not be committed.
+	 * 
+	 * @param item the item that failed
+	 */
+	void discard(ImportItem item) {
+		if ((item.id == null) || (item.year == null)) {
+			return;
 		}
-		if ((dt != null) && (tm != null)) {
-			SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd HHmmss");
+		for (String kind : KINDS) {
 			try {
-				return fmt.parse(dt + " " + tm.split("[+]")[0]).getTime();
-			} catch (ParseException e) {
-				e.printStackTrace();
-				throw new RuntimeException(e);
+				Files.deleteIfExists(Paths.get(this.photosPath + item.year, kind, item.id + TEMP));
+			} catch (IOException e) {
+				log.warn("Cannot delete the " + kind + " file of '" + item.path + "': " + e.getMessage());
 			}
 		}
-		return 0;
+	}
+
+	/**
+	 * Import stage 5: add the photo to the batch that is committed next,
+	 * together with the removal of the photo it replaces.
+	 * 
+	 * @param item  the item to import
+	 * @param batch the batch to add the writes to
+	 */
+	void commit(ImportItem item, CommitBatch batch) {
+		if (item.status == ImportItem.Status.CHANGED) {
+			// The content of the file has changed since it was imported: replace it
+			batch.delete(item.previous);
+		}
+		Photo p = new Photo();
+		p.setId(item.id);
+		p.setTags(item.tags);
+		p.setPath(this.photosPath + item.year);
+		p.setOrigFilename(item.name);
+		p.setOrigPath(item.path.toAbsolutePath().toString());
+		p.setHash(item.hash);
+		Dimension size = getWidthAndHeight(item.meta);
+		p.setOrigWidth((int) size.getWidth());
+		p.setOrigHeight((int) size.getHeight());
+		p.setPhotoHeight(item.photoHeight);
+		p.setPhotoWidth(item.photoWidth);
+		p.setThumbHeight(item.thumbHeight);
+		p.setThumbWidth(item.thumbWidth);
+		p.setCreationDate(getCreationDate(item.meta));
+		batch.insert(item, p);
+		log.debug("Imported photo '" + item.name + "' with id " + item.id + " and checksum " + item.hash);
+	}
+
+	/**
+	 * @return a new, empty batch of database writes
+	 */
+	CommitBatch newBatch() {
+		return new CommitBatch(this.database, this.tagStore);
+	}
+
+	/**
+	 * Retrieve the list of keywords from the metadata of a photo.
+	 * 
+	 * @param meta the metadata read from the JPEG header
+	 * @return
+	 */
+	protected String getKeywords(ImageMetadata meta) {
+		return meta.getTags();
+	}
+
+	/**
+	 * Retrieve the width and height from the metadata of a photo. The EXIF
+	 * dimensions are used if present, otherwise those of the JPEG frame.
+	 * 
+	 * @param meta the metadata read from the JPEG header
+	 * @return
+	 */
+	protected Dimension getWidthAndHeight(ImageMetadata meta) {
+		return new Dimension(meta.getWidth(), meta.getHeight());
+	}
+
+	/**
+	 * Retrieve the Creation Date of a photo from the IPTC date and time created.
+	 * 
+	 * @param meta the metadata read from the JPEG header
+	 * @return
+	 */
+	protected long getCreationDate(ImageMetadata meta) {
+		return meta.getCreationDate();
 	}
 
 	/**
@@ -223,23 +417,9 @@ public class ImageImporter {
 	 */
 	public void save(Photo photo, MongoCollection<Photo> pcol) {
 		if (photo != null) {
+			this.counters.assignOrdinals(Collections.singletonList(photo));
 			pcol.insertOne(photo);
-			String tags = photo.getTags();
-			if ((tags != null) && (tags.length() > 0)) {
-				MongoCollection<TagIndex> tcol = this.database.getCollection("tags", TagIndex.class);
-				for (String tag : tags.split(";")) {
-					TagIndex i = findTag(tag, tcol);
-					if (i != null) {
-						i.addId(photo.getId());
-						tcol.updateOne(eq("tag", tag.toLowerCase()), set("ids", i.getIds()));
-					} else {
-						TagIndex ti = new TagIndex();
-						ti.setTag(tag.toLowerCase());
-						ti.addId(photo.getId());
-						tcol.insertOne(ti);
-					}
-				}
-			}
+			this.tagStore.addPhoto(photo);
 		}
 	}
 
@@ -268,35 +448,40 @@ public class ImageImporter {
 	public String findAndRemove(String name) {
 		log.debug("[findAndRemove()] " + name);
 		MongoCollection<Photo> collection = this.database.getCollection("photos", Photo.class);
-		MongoCursor<Photo> pcur = collection.find(eq("origFilename", name)).cursor();
-		if (pcur.hasNext()) {
-			// Remove it from database
-			Photo p = pcur.next();
-			String id = p.getId();
-			pcur.close();
-			collection.findOneAndDelete(eq("_id", id));
-			// Also remove id from TagIndex
-			MongoCollection<TagIndex> tcol = this.database.getCollection("tags", TagIndex.class);
-			for (String tag : p.getTags().split(";")) {
-				MongoCursor<TagIndex> ticur = tcol.find(eq("tag", tag)).cursor();
-				if (ticur.hasNext()) {
-					TagIndex ti = ticur.next();
-					Set<String> ids = ti.getIds();
-					log.debug("'" + id + (ids.remove(id) ? "' found" : "' not found") + " in tag '" + tag + "'");
-					if (ids.isEmpty()) {
-						tcol.deleteOne(eq("tag", tag));
-					} else {
-						tcol.updateOne(eq("tag", tag), set("ids", ids));
-					}
-				}
-				ticur.close();
-			}
-			log.debug("[findAndRemove()] Found and removed: " + id);
-			return id;
+		Photo p = collection.find(eq("origFilename", name)).first();
+		if (p != null) {
+			remove(p);
+			log.debug("[findAndRemove()] Found and removed: " + p.getId());
+			return p.getId();
 		} else {
-			pcur.close();
 			log.debug("[findAndRemove()] Not found");
 			return null;
 		}
 	}
+
+	/**
+	 * Remove a photo from the database and from the TagIndex.
+	 * 
+	 * @param p the photo to remove
+	 */
+	public void remove(Photo p) {
+		String id = p.getId();
+		MongoCollection<Photo> collection = this.database.getCollection("photos", Photo.class);
+		collection.findOneAndDelete(eq("_id", id));
+		// Also remove id from TagIndex
+		this.tagStore.removePhoto(p);
+		log.debug("Removed photo " + id + " from tags '" + p.getTags() + "'");
+	}
+
+	/**
+	 * Delete the original and the renditions of a photo.
+	 * 
+	 * @param p the photo
+	 * @throws IOException
+	 */
+	static void deleteFiles(Photo p) throws IOException {
+		Files.deleteIfExists(Paths.get(p.getPath() + "/originals/" + p.getId() + ".jpg"));
+		Files.deleteIfExists(Paths.get(p.getPath() + "/photos/" + p.getId() + ".jpg"));
+		Files.deleteIfExists(Paths.get(p.getPath() + "/thumbs/" + p.getId() + ".jpg"));
+	}
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The metadata of a photo that is needed to tag and import it: the IPTC
+ * keywords, the IPTC creation date and time and the dimensions of the image.
+ */
+public class ImageMetadata {
+
+	private boolean iptc;
+	private List<String> keywords = new ArrayList<>();
+	private String dateCreated;
+	private String timeCreated;
+	private int exifWidth;
+	private int exifHeight;
+	private int frameWidth;
+	private int frameHeight;
+
+	/**
+	 * @return true if the file contains an IPTC block
+	 */
+	public boolean hasIptc() {
+		return this.iptc;
+	}
+
+	/**
+	 * @param iptc true if the file contains an IPTC block
+	 */
+	public void setIptc(boolean iptc) {
+		this.iptc = iptc;
+	}
+
+	/**
+	 * @return the IPTC keywords in the order they appear in the file
+	 */
+	public List<String> getKeywords() {
+		return this.keywords;
+	}
+
+	/**
+	 * @param keyword the keyword to add
+	 */
+	public void addKeyword(String keyword) {
+		this.keywords.add(keyword);
+	}
+
+	/**
+	 * The keywords as they are stored in a {@link nl.das.tagphotos.model.Photo}:
+	 * lowercase and separated by a semicolon. The first one is the year.
+	 *
+	 * @return the tags or an empty string if there are no keywords
+	 */
+	public String getTags() {
+		StringBuilder tags = new StringBuilder();
+		for (String kw : this.keywords) {
+			if (tags.length() > 0) {
+				tags.append(';');
+			}
+			tags.append(kw.toLowerCase());
+		}
+		return tags.toString();
+	}
+
+	/**
+	 * @return the IPTC date created (yyyyMMdd) or null
+	 */
+	public String getDateCreated() {
+		return this.dateCreated;
+	}
+
+	/**
+	 * @param dateCreated the IPTC date created to set
+	 */
+	public void setDateCreated(String dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+
+	/**
+	 * @return the IPTC time created (HHmmss+hhmm) or null
+	 */
+	public String getTimeCreated() {
+		return this.timeCreated;
+	}
+
+	/**
+	 * @param timeCreated the IPTC time created to set
+	 */
+	public void setTimeCreated(String timeCreated) {
+		this.timeCreated = timeCreated;
+	}
+
+	/**
+	 * The creation date of the photo, from the IPTC date and time created.
+	 *
+	 * @return the creation date as milliseconds since 1-1-1970 or 0 if unknown
+	 */
+	public long getCreationDate() {
+		if ((this.dateCreated != null) && (this.timeCreated != null)) {
+			SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd HHmmss");
+			try {
+				return fmt.parse(this.dateCreated + " " + this.timeCreated.split("[+-]")[0]).getTime();
+			} catch (ParseException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param width  the EXIF pixel width
+	 * @param height the EXIF pixel height
+	 */
+	public void setExifSize(int width, int height) {
+		this.exifWidth = width;
+		this.exifHeight = height;
+	}
+
+	/**
+	 * @param width  the width from the JPEG frame header
+	 * @param height the height from the JPEG frame header
+	 */
+	public void setFrameSize(int width, int height) {
+		this.frameWidth = width;
+		this.frameHeight = height;
+	}
+
+	/**
+	 * @return the width from the JPEG frame header, which is the width of the
+	 *         decoded image, or 0 if unknown
+	 */
+	public int getFrameWidth() {
+		return this.frameWidth;
+	}
+
+	/**
+	 * @return the height from the JPEG frame header, which is the height of the
+	 *         decoded image, or 0 if unknown
+	 */
+	public int getFrameHeight() {
+		return this.frameHeight;
+	}
+
+	/**
+	 * @return the EXIF pixel width or 0 if there is none
+	 */
+	public int getExifWidth() {
+		return this.exifWidth;
+	}
+
+	/**
+	 * @return the EXIF pixel height or 0 if there is none
+	 */
+	public int getExifHeight() {
+		return this.exifHeight;
+	}
+
+	/**
+	 * @return the EXIF width or, if there is none, the width of the JPEG frame
+	 */
+	public int getWidth() {
+		return this.exifWidth > 0 ? this.exifWidth : this.frameWidth;
+	}
+
+	/**
+	 * @return the EXIF height or, if there is none, the height of the JPEG frame
+	 */
+	public int getHeight() {
+		return this.exifHeight > 0 ? this.exifHeight : this.frameHeight;
+	}
+}
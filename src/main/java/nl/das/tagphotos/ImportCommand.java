@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.client.MongoDatabase;
+
+import nl.das.tagphotos.ImportPipeline.Stage;
+
+/**
+ * Imports folders without a window, e.g. from cron:
+ *
+ * <pre>
+ * import [--workers N] [--progress SECONDS] folder...
+ * </pre>
+ *
+ * While the import runs the throughput of the last interval is printed to
+ * standard error. When it is done a summary is printed to standard output as
+ * one line of JSON, see {@link ImportReport#toSummary()}.
+ * <p>
+ * The import is journaled as a job, see {@link ImportJournal}: when it stops
+ * halfway, an import of the same folders resumes it.
+ */
+public class ImportCommand {
+
+	/** All files were imported, skipped as unchanged or as duplicates */
+	public static final int EXIT_OK = 0;
+	/** Some files could not be imported */
+	public static final int EXIT_FAILED = 1;
+	/** The arguments are wrong or a folder cannot be read */
+	public static final int EXIT_USAGE = 2;
+	/** The import stopped, e.g. because the database is not available */
+	public static final int EXIT_ERROR = 3;
+
+	private static final String USAGE = "Usage: import [--workers N] [--progress SECONDS] folder...";
+
+	private final Properties conf;
+	private final MongoDatabase database;
+	private final PrintStream out;
+	private final PrintStream err;
+	private int workers;
+	private int progress = 10;
+	private final List<Path> folders = new ArrayList<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf     configuration properties
+	 * @param database MongoDatabase object
+	 * @param out      receives the summary
+	 * @param err      receives the progress and errors
+	 */
+	public ImportCommand(Properties conf, MongoDatabase database, PrintStream out, PrintStream err) {
+		this.conf = conf;
+		this.database = database;
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Run the command.
+	 *
+	 * @param args the arguments after "import"
+	 * @return the exit code
+	 */
+	public int run(String[] args) {
+		try {
+			parse(args);
+		} catch (IllegalArgumentException e) {
+			this.err.println(e.getMessage());
+			this.err.println(USAGE);
+			return EXIT_USAGE;
+		}
+		ImportJournal journal;
+		try {
+			journal = ImportJournal.open(this.conf, this.folders);
+		} catch (RuntimeException e) {
+			this.err.println("Cannot open the import journal: " + e.getMessage());
+			return EXIT_ERROR;
+		}
+		this.err.println("Importing from " + this.folders.size() + " folders as job " + journal.getId());
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "import-progress");
+			t.setDaemon(true);
+			return t;
+		});
+		FolderDiscovery discovery = new FolderDiscovery(this.conf);
+		ImportReport report;
+		try {
+			ImportPipeline pipeline = new ImportPipeline(this.conf, new ImageImporter(this.conf, this.database));
+			if (this.workers > 0) {
+				pipeline.setWorkers(this.workers);
+			}
+			pipeline.setJournal(journal);
+			Progress p = new Progress(pipeline);
+			timer.scheduleAtFixedRate(p::print, this.progress, this.progress, TimeUnit.SECONDS);
+			// the import starts with the first photo found, not after the whole walk
+			pipeline.start(null);
+			discovery.walk(this.folders, file -> {
+				synchronized (pipeline) {
+					if (!pipeline.isCancelled()) {
+						pipeline.submit(file);
+					}
+				}
+			});
+			report = pipeline.finish();
+			journal.finish();
+		} catch (RuntimeException e) {
+			this.err.println("Import stopped: " + e.getMessage() + ", run it again to resume job " + journal.getId());
+			return EXIT_ERROR;
+		} finally {
+			timer.shutdownNow();
+			discovery.shutdown();
+			journal.close();
+		}
+		this.err.println(report);
+		for (String failure : report.getFailures()) {
+			this.err.println("Not imported: " + failure);
+		}
+		try {
+			this.out.println(Utils.writer().writeValueAsString(report.toSummary()));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return report.getFailed() == 0 ? EXIT_OK : EXIT_FAILED;
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--workers") || args[i].equals("--progress")) {
+				if ((i + 1) >= args.length) {
+					throw new IllegalArgumentException(args[i] + " needs a number");
+				}
+				int n;
+				try {
+					n = Integer.parseInt(args[i + 1]);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(args[i] + " needs a number, not '" + args[i + 1] + "'");
+				}
+				if (n < 1) {
+					throw new IllegalArgumentException(args[i] + " must be at least 1");
+				}
+				if (args[i].equals("--workers")) {
+					this.workers = n;
+				} else {
+					this.progress = n;
+				}
+				i++;
+			} else if (args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			} else {
+				Path folder = Paths.get(args[i]);
+				if (!Files.isDirectory(folder)) {
+					throw new IllegalArgumentException("'" + args[i] + "' is not a folder");
+				}
+				this.folders.add(folder);
+			}
+		}
+		if (this.folders.isEmpty()) {
+			throw new IllegalArgumentException("No folder given");
+		}
+	}
+
+	/**
+	 * Prints the throughput since the last time it printed.
+	 */
+	private class Progress {
+		private final ImportPipeline pipeline;
+		private int handled;
+		private long bytes;
+		private long millis;
+
+		Progress(ImportPipeline pipeline) {
+			this.pipeline = pipeline;
+		}
+
+		void print() {
+			ImportReport report = this.pipeline.getReport();
+			if (report == null) {
+				return;
+			}
+			int h = report.getHandled();
+			long b = report.getBytes();
+			long ms = report.getElapsedMillis();
+			double seconds = Math.max(1, ms - this.millis) / 1000.0;
+			// the total grows while the folders are walked
+			StringBuilder sb = new StringBuilder(String.format("%d/%d files, %.2f files/s, %.2f MB/s, %d failed", h,
+					report.getFiles(), (h - this.handled) / seconds, (b - this.bytes) / (1024.0 * 1024.0) / seconds,
+					report.getFailed()));
+			for (Stage stage : Stage.values()) {
+				sb.append(String.format(", %s %.0f ms", stage.name().toLowerCase(), report.getAverageMillis(stage)));
+			}
+			ImportCommand.this.err.println(sb);
+			this.handled = h;
+			this.bytes = b;
+			this.millis = ms;
+		}
+	}
+}
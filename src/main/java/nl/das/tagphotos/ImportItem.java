@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.nio.file.Path;
+
+import ij.ImagePlus;
+import nl.das.tagphotos.model.Photo;
+
+/**
+ * The state of a single file while it travels through the import stages.
+ * Every stage fills in its own part and clears what is no longer needed, so
+ * decoded pixels do not stay in memory longer than necessary.
+ */
+public class ImportItem {
+
+	/**
+	 * What the import does with the file, decided after comparing its checksum
+	 * with the photos in the database.
+	 */
+	public enum Status {
+		/** Not imported before */
+		NEW,
+		/** Imported before from the same file, but the content has changed */
+		CHANGED,
+		/** Imported before from the same file with the same content: skipped */
+		UNCHANGED,
+		/** The same content was imported from another file: skipped */
+		DUPLICATE,
+		/** Committed by an earlier run of the same import job: skipped without reading it */
+		RESUMED
+	}
+
+	/** Position of the file in the input, used to keep the results in order */
+	final int index;
+	/** The file to import */
+	final Path path;
+	/** Size of the file in bytes */
+	long size;
+
+	// metadata stage
+	String name;
+	String id;
+	ImageMetadata meta;
+	String tags;
+	String year;
+	/** SHA-256 checksum of the file */
+	String hash;
+	Status status = Status.NEW;
+	/** The photo this file replaces (CHANGED) or has the same content as (DUPLICATE) */
+	Photo previous;
+	/** The file with the same content, if the duplicate is in the same import */
+	Path duplicateOf;
+
+	// decode and resize stages
+	/** Memory reserved for the decode in the DecodeScheduler */
+	long reserved;
+	ImagePlus image;
+	ImagePlus photo;
+	ImagePlus thumb;
+	int photoWidth;
+	int photoHeight;
+	int thumbWidth;
+	int thumbHeight;
+
+	// commit stage
+	/** Time spent adding the item to its batch; 0 if it did not reach the bulk write */
+	long commitNanos;
+
+	/** The first error that occurred; later stages skip an item with an error */
+	Exception error;
+
+	ImportItem(int index, Path path) {
+		this.index = index;
+		this.path = path;
+	}
+
+	/**
+	 * @return the position of the file in the input
+	 */
+	public int getIndex() {
+		return this.index;
+	}
+
+	/**
+	 * @return the file that is imported
+	 */
+	public Path getPath() {
+		return this.path;
+	}
+
+	/**
+	 * @return the GUID given to the photo
+	 */
+	public String getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return what the import does with this file
+	 */
+	public Status getStatus() {
+		return this.status;
+	}
+
+	/**
+	 * @return true if the file is not rendered and committed again
+	 */
+	public boolean isSkipped() {
+		return (this.status == Status.UNCHANGED) || (this.status == Status.DUPLICATE)
+				|| (this.status == Status.RESUMED);
+	}
+
+	/**
+	 * @return the error that stopped the import of this file or null
+	 */
+	public Exception getError() {
+		return this.error;
+	}
+
+	/**
+	 * @return true if the file was imported successfully
+	 */
+	public boolean isImported() {
+		return this.error == null;
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The journal of an import job: the folders it imports and the state of every
+ * file in it. The journal is a text file in {@code import.journal.dir} to
+ * which a line is appended for every change of state:
+ *
+ * <pre>
+ * job 20261017-101500-000
+ * root /media/card/DCIM
+ * D /media/card/DCIM/100CANON/IMG_0001.JPG
+ * R /media/card/DCIM/100CANON/IMG_0001.JPG
+ * C /media/card/DCIM/100CANON/IMG_0001.JPG
+ * end
+ * </pre>
+ *
+ * D is discovered, R rendered, C committed and F failed; "end" marks a job
+ * that ran to the end. The lines are forced to disk in batches: when
+ * {@code import.journal.sync.records} lines are waiting, or when a line is
+ * added {@code import.journal.sync.ms} milliseconds after the last sync. A
+ * file is only marked committed after its database write, so the journal
+ * never claims too much; lines lost when the program stops only cause files to
+ * be imported again, which the import recognizes as unchanged by their
+ * checksum.
+ * <p>
+ * An import of the same folders as an unfinished job resumes that job: the
+ * files it committed are skipped without reading them.
+ */
+@Slf4j
+public class ImportJournal {
+
+	/**
+	 * The state of a file in the job.
+	 */
+	public enum State {
+		DISCOVERED('D'), RENDERED('R'), COMMITTED('C'), FAILED('F');
+
+		final char code;
+
+		State(char code) {
+			this.code = code;
+		}
+
+		static State of(char code) {
+			for (State s : values()) {
+				if (s.code == code) {
+					return s;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final String SUFFIX = ".journal";
+
+	private final Path file;
+	private final String id;
+	private final List<Path> roots = new ArrayList<>();
+	private final Map<Path, State> states = new HashMap<>();
+	private boolean finished;
+	private FileChannel out;
+	private final StringBuilder pending = new StringBuilder();
+	private int pendingRecords;
+	private long lastSync;
+	private int syncRecords;
+	private long syncMillis;
+
+	private ImportJournal(Path file, String id) {
+		this.file = file;
+		this.id = id;
+	}
+
+	/**
+	 * Open the journal of an import of folders: the last unfinished job of the
+	 * same folders, or else a new job. Finished jobs beyond the newest
+	 * {@code import.journal.keep} are deleted.
+	 *
+	 * @param conf  configuration properties
+	 * @param roots the folders to import
+	 * @return the journal, open for writing
+	 */
+	public static ImportJournal open(Properties conf, List<Path> roots) {
+		Path dir = dir(conf);
+		List<Path> absolute = new ArrayList<>();
+		for (Path root : roots) {
+			absolute.add(root.toAbsolutePath().normalize());
+		}
+		try {
+			Files.createDirectories(dir);
+			ImportJournal journal = null;
+			List<ImportJournal> jobs = jobs(conf);
+			for (int i = jobs.size() - 1; i >= 0; i--) {
+				if (!jobs.get(i).finished && jobs.get(i).roots.equals(absolute)) {
+					journal = jobs.get(i);
+					log.info("Resuming import job " + journal.id + ": " + journal.count(State.COMMITTED)
+							+ " files were committed");
+					break;
+				}
+			}
+			int keep = Integer.parseInt(conf.getProperty("import.journal.keep", "20"));
+			int finishedJobs = 0;
+			for (int i = jobs.size() - 1; i >= 0; i--) {
+				if (jobs.get(i).finished && (++finishedJobs > keep)) {
+					Files.deleteIfExists(jobs.get(i).file);
+				}
+			}
+			boolean created = journal == null;
+			if (created) {
+				String id = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+				for (int n = 1; Files.exists(dir.resolve(id + SUFFIX)); n++) {
+					id = id.substring(0, 19) + "-" + n;
+				}
+				journal = new ImportJournal(dir.resolve(id + SUFFIX), id);
+				journal.roots.addAll(absolute);
+			}
+			journal.syncRecords = Integer.parseInt(conf.getProperty("import.journal.sync.records", "100"));
+			journal.syncMillis = Long.parseLong(conf.getProperty("import.journal.sync.ms", "1000"));
+			journal.out = FileChannel.open(journal.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+			journal.lastSync = System.currentTimeMillis();
+			if (created) {
+				journal.append("job " + journal.id);
+				for (Path root : absolute) {
+					journal.append("root " + root);
+				}
+				journal.sync();
+			}
+			return journal;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Read the journals of all jobs.
+	 *
+	 * @param conf configuration properties
+	 * @return the jobs, oldest first; they are not open for writing
+	 */
+	public static List<ImportJournal> jobs(Properties conf) {
+		List<Path> files = new ArrayList<>();
+		Path dir = dir(conf);
+		if (Files.isDirectory(dir)) {
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+				for (Path f : ds) {
+					files.add(f);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		// the names start with the time the job was created
+		files.sort(null);
+		List<ImportJournal> jobs = new ArrayList<>();
+		for (Path f : files) {
+			try {
+				jobs.add(read(f));
+			} catch (IOException e) {
+				log.warn("Cannot read import journal '" + f + "': " + e.getMessage());
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Read a journal. A last line that was not written completely is ignored.
+	 */
+	static ImportJournal read(Path file) throws IOException {
+		String name = file.getFileName().toString();
+		ImportJournal journal = new ImportJournal(file, name.substring(0, name.length() - SUFFIX.length()));
+		String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		int start = 0;
+		int end;
+		while ((end = text.indexOf('\n', start)) >= 0) {
+			String line = text.substring(start, end);
+			start = end + 1;
+			if (line.equals("end")) {
+				journal.finished = true;
+			} else if (line.startsWith("root ")) {
+				journal.roots.add(Paths.get(line.substring(5)));
+			} else if ((line.length() > 2) && (line.charAt(1) == ' ') && (State.of(line.charAt(0)) != null)) {
+				journal.states.put(Paths.get(line.substring(2)), State.of(line.charAt(0)));
+			}
+		}
+		return journal;
+	}
+
+	/**
+	 * @return the id of the job, which is the time it was created
+	 */
+	public String getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return the journal file
+	 */
+	Path getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return the folders the job imports
+	 */
+	public List<Path> getRoots() {
+		return new ArrayList<>(this.roots);
+	}
+
+	/**
+	 * @return true if the job ran to the end
+	 */
+	public synchronized boolean isFinished() {
+		return this.finished;
+	}
+
+	/**
+	 * @param file a file of the job
+	 * @return true if the file was committed, also in an earlier run of the job
+	 */
+	public synchronized boolean isCommitted(Path file) {
+		return this.states.get(file.toAbsolutePath().normalize()) == State.COMMITTED;
+	}
+
+	/**
+	 * @param state a state
+	 * @return the number of files that are in the state
+	 */
+	public synchronized int count(State state) {
+		int n = 0;
+		for (State s : this.states.values()) {
+			if (s == state) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of files per state, in the order of the states
+	 */
+	public synchronized Map<State, Integer> counts() {
+		Map<State, Integer> counts = new EnumMap<>(State.class);
+		for (State s : State.values()) {
+			counts.put(s, 0);
+		}
+		for (State s : this.states.values()) {
+			counts.put(s, counts.get(s) + 1);
+		}
+		return counts;
+	}
+
+	/**
+	 * Record the new state of a file.
+	 *
+	 * @param file  the file
+	 * @param state its new state
+	 */
+	public synchronized void record(Path file, State state) {
+		Path abs = file.toAbsolutePath().normalize();
+		this.states.put(abs, state);
+		if (this.out != null) {
+			append(state.code + " " + abs);
+			if ((this.pendingRecords >= this.syncRecords)
+					|| ((System.currentTimeMillis() - this.lastSync) >= this.syncMillis)) {
+				sync();
+			}
+		}
+	}
+
+	/**
+	 * Mark the job as finished and close the journal.
+	 */
+	public synchronized void finish() {
+		if (this.out != null) {
+			append("end");
+			this.finished = true;
+			close();
+		}
+	}
+
+	/**
+	 * Close the journal, e.g. when the import was cancelled. The job can be
+	 * resumed later.
+	 */
+	public synchronized void close() {
+		if (this.out == null) {
+			return;
+		}
+		try {
+			sync();
+		} catch (RuntimeException e) {
+			log.warn("Cannot write import journal '" + this.file + "': " + e.getMessage());
+		}
+		try {
+			this.out.close();
+		} catch (IOException e) {
+			log.warn("Cannot close import journal '" + this.file + "': " + e.getMessage());
+		}
+		this.out = null;
+	}
+
+	@Override
+	public synchronized String toString() {
+		Map<State, Integer> counts = counts();
+		int done = counts.get(State.COMMITTED);
+		int failed = counts.get(State.FAILED);
+		return String.format("%s %s: %d done, %d failed, %d remaining%s", this.id,
+				this.finished ? "finished" : "unfinished", done, failed, this.states.size() - done - failed,
+				this.roots.isEmpty() ? "" : " of " + this.roots);
+	}
+
+	private void append(String line) {
+		this.pending.append(line).append('\n');
+		this.pendingRecords++;
+	}
+
+	/**
+	 * Write the pending lines and force them to disk.
+	 */
+	private void sync() {
+		if (this.pending.length() == 0) {
+			return;
+		}
+		try {
+			ByteBuffer buf = ByteBuffer.wrap(this.pending.toString().getBytes(StandardCharsets.UTF_8));
+			while (buf.hasRemaining()) {
+				this.out.write(buf);
+			}
+			this.out.force(false);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		this.pending.setLength(0);
+		this.pendingRecords = 0;
+		this.lastSync = System.currentTimeMillis();
+	}
+
+	private static Path dir(Properties conf) {
+		return Paths.get(conf.getProperty("import.journal.dir", System.getProperty("user.home") + "/.tagphotos/jobs"));
+	}
+}
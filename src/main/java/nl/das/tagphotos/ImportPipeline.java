@@ -0,0 +1,459 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Imports a set of files through a staged pipeline. Each stage has its own
+ * pool of workers and the stages are connected by bounded queues, so a slow
+ * stage holds back the ones in front of it instead of filling the heap with
+ * decoded images.
+ *
+ * <pre>
+ * metadata -&gt; decode -&gt; resize -&gt; write -&gt; commit
+ * </pre>
+ *
+ * The commit stage runs on a single thread and commits the files in the order
+ * they were submitted, so the listener sees the results in input order. The
+ * database writes are committed in batches of a configurable size, or when the
+ * oldest write in the batch has waited for the flush interval.
+ * <p>
+ * With an {@link ImportJournal} the state of every file is journaled and the
+ * files an earlier run of the job committed are skipped.
+ */
+@Slf4j
+public class ImportPipeline {
+
+	/**
+	 * The stages of the pipeline.
+	 */
+	public enum Stage {
+		METADATA, DECODE, RESIZE, WRITE, COMMIT
+	}
+
+	/**
+	 * Receives the result of every file, in input order.
+	 */
+	public interface Listener {
+		void imported(ImportItem item);
+	}
+
+	private static final ImportItem POISON = new ImportItem(-1, null);
+
+	private final ImageImporter importer;
+	private final int queueSize;
+	private final int batchSize;
+	private final long flushInterval;
+	private final Map<Stage, Integer> workers = new HashMap<>();
+	private Listener listener;
+	private ImportJournal journal;
+	/** Why the journal could not be written; the import is cancelled then */
+	private volatile RuntimeException journalError;
+	private ImportReport report;
+	private BlockingQueue<ImportItem> input;
+	private ExecutorService[] pools;
+	private Thread committer;
+	/** Checksum of every file seen in this run, to find duplicates within the run */
+	private Map<String, Path> seen;
+	private int submitted;
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf     configuration properties
+	 * @param importer the importer that does the work of every stage
+	 */
+	public ImportPipeline(Properties conf, ImageImporter importer) {
+		this.importer = importer;
+		int cores = Runtime.getRuntime().availableProcessors();
+		this.queueSize = Integer.parseInt(conf.getProperty("import.queue.size", "8"));
+		this.batchSize = Integer.parseInt(conf.getProperty("import.batch.size", "100"));
+		this.flushInterval = Long.parseLong(conf.getProperty("import.batch.flush.ms", "2000"));
+		this.workers.put(Stage.METADATA, Integer.parseInt(conf.getProperty("import.workers.metadata", "2")));
+		this.workers.put(Stage.DECODE, Integer.parseInt(conf.getProperty("import.workers.decode", "" + cores)));
+		this.workers.put(Stage.RESIZE, Integer.parseInt(conf.getProperty("import.workers.resize", "" + cores)));
+		this.workers.put(Stage.WRITE, Integer.parseInt(conf.getProperty("import.workers.write", "2")));
+		// committing in input order needs a single committer
+		this.workers.put(Stage.COMMIT, 1);
+	}
+
+	/**
+	 * Set the number of workers of all stages but the commit stage.
+	 *
+	 * @param count the number of workers per stage
+	 */
+	public void setWorkers(int count) {
+		for (Stage stage : Stage.values()) {
+			if (stage != Stage.COMMIT) {
+				this.workers.put(stage, Math.max(1, count));
+			}
+		}
+	}
+
+	/**
+	 * Journal the import as a job, so it can be resumed when it stops halfway.
+	 *
+	 * @param journal the journal of the job, or null for none
+	 */
+	public void setJournal(ImportJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Import all given files and wait until they are done.
+	 *
+	 * @param files    the files to import
+	 * @param listener receives the result of every file in input order, may be
+	 *                 null
+	 * @return the throughput report
+	 */
+	public ImportReport run(List<Path> files, Listener listener) {
+		start(listener);
+		for (Path file : files) {
+			if (this.cancelled) {
+				break;
+			}
+			submit(file);
+		}
+		return finish();
+	}
+
+	/**
+	 * Start the workers of all stages.
+	 *
+	 * @param listener receives the result of every file in input order, may be
+	 *                 null
+	 */
+	public void start(Listener listener) {
+		this.listener = listener;
+		this.journalError = null;
+		this.report = new ImportReport();
+		this.submitted = 0;
+		this.cancelled = false;
+		this.seen = new ConcurrentHashMap<>();
+		this.importer.getDecodeScheduler().resetPeaks();
+		Stage[] stages = Stage.values();
+		this.pools = new ExecutorService[stages.length];
+		BlockingQueue<ImportItem> in = new ArrayBlockingQueue<>(this.queueSize);
+		this.input = in;
+		for (Stage stage : stages) {
+			if (stage == Stage.COMMIT) {
+				BlockingQueue<ImportItem> commitQueue = in;
+				this.committer = new Thread(() -> commit(commitQueue), "import-commit");
+				this.committer.start();
+			} else {
+				BlockingQueue<ImportItem> out = new ArrayBlockingQueue<>(this.queueSize);
+				int count = this.workers.get(stage);
+				AtomicInteger live = new AtomicInteger(count);
+				this.pools[stage.ordinal()] = Executors.newFixedThreadPool(count, namedThreads(stage));
+				for (int i = 0; i < count; i++) {
+					BlockingQueue<ImportItem> from = in;
+					this.pools[stage.ordinal()].execute(() -> work(stage, from, out, live));
+				}
+				in = out;
+			}
+		}
+	}
+
+	/**
+	 * Offer the next file to the pipeline. Blocks while the first stage is
+	 * busy.
+	 *
+	 * @param file the file to import
+	 */
+	public void submit(Path file) {
+		ImportItem item = new ImportItem(this.submitted++, file);
+		if (this.journal != null) {
+			if (this.journal.isCommitted(file)) {
+				item.status = ImportItem.Status.RESUMED;
+			} else {
+				journal(file, ImportJournal.State.DISCOVERED);
+			}
+		}
+		put(this.input, item);
+		this.report.submitted();
+	}
+
+	/**
+	 * Signal that no more files will be submitted and wait until all submitted
+	 * files are committed.
+	 *
+	 * @return the throughput report
+	 * @throws RuntimeException when the journal could not be written
+	 */
+	public ImportReport finish() {
+		put(this.input, POISON);
+		try {
+			this.committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (ExecutorService pool : this.pools) {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+		this.report.finish();
+		this.report.decodeMemory(this.importer.getDecodeScheduler());
+		for (String duplicate : this.report.getDuplicates()) {
+			log.info("Duplicate not imported: " + duplicate);
+		}
+		log.info("Import finished: " + this.report);
+		if (this.journalError != null) {
+			throw new RuntimeException("The import journal could not be written: " + this.journalError.getMessage(),
+					this.journalError);
+		}
+		return this.report;
+	}
+
+	/**
+	 * Stop importing. Files that are not yet committed are reported as failed.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * @return true if the import was cancelled
+	 */
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * @return the report of the current or last run
+	 */
+	public ImportReport getReport() {
+		return this.report;
+	}
+
+	private void work(Stage stage, BlockingQueue<ImportItem> in, BlockingQueue<ImportItem> out, AtomicInteger live) {
+		boolean ended = false;
+		try {
+			work(stage, in, out);
+			ended = true;
+			// the last worker of the stage passes the end marker on, the others
+			// hand it to their siblings
+			put(live.decrementAndGet() == 0 ? out : in, POISON);
+		} finally {
+			if (!ended && (live.decrementAndGet() == 0)) {
+				// the last worker of the stage died: end the stages after it
+				// instead of letting them wait forever
+				log.error("The last worker of stage " + stage + " stopped");
+				put(out, POISON);
+			}
+		}
+	}
+
+	/**
+	 * Handle the items of a stage until the end marker arrives.
+	 */
+	private void work(Stage stage, BlockingQueue<ImportItem> in, BlockingQueue<ImportItem> out) {
+		while (true) {
+			ImportItem item = take(in);
+			if (item == POISON) {
+				return;
+			}
+			if ((item.error == null) && !item.isSkipped()) {
+				if (this.cancelled) {
+					item.error = new InterruptedException("Import cancelled");
+				} else {
+					long start = System.nanoTime();
+					try {
+						switch (stage) {
+						case METADATA:
+							this.importer.readMetadata(item);
+							if (!item.isSkipped()) {
+								Path other = this.seen.putIfAbsent(item.hash, item.path);
+								if (other != null) {
+									log.warn("'" + item.path + "' has the same content as '" + other + "'");
+									item.status = ImportItem.Status.DUPLICATE;
+									item.duplicateOf = other;
+								}
+							}
+							break;
+						case DECODE:
+							this.importer.decode(item);
+							break;
+						case RESIZE:
+							this.importer.resize(item);
+							break;
+						case WRITE:
+							this.importer.write(item);
+							journal(item.path, ImportJournal.State.RENDERED);
+							break;
+						default:
+							break;
+						}
+					} catch (Exception e) {
+						log.error("Import of '" + item.path + "' failed in stage " + stage + ": " + e.getMessage());
+						item.error = e;
+					} catch (Throwable e) {
+						// e.g. out of memory while decoding: fail the item, not the worker,
+						// as the committer waits for every item
+						log.error("Import of '" + item.path + "' failed in stage " + stage + ": " + e);
+						item.error = new RuntimeException(e.toString(), e);
+					}
+					this.report.stageDone(stage, System.nanoTime() - start);
+				}
+			}
+			if (item.error != null) {
+				// drop the pixels and the files of a failed item right away
+				this.importer.release(item);
+				this.importer.discard(item);
+				item.image = null;
+				item.photo = null;
+				item.thumb = null;
+			}
+			put(out, item);
+		}
+	}
+
+	private void commit(BlockingQueue<ImportItem> in) {
+		Map<Integer, ImportItem> pending = new HashMap<>();
+		CommitBatch batch = this.importer.newBatch();
+		int next = 0;
+		while (true) {
+			long wait = Math.max(1, this.flushInterval - batch.age());
+			ImportItem item = poll(in, batch.size() == 0 ? Long.MAX_VALUE : wait);
+			if (item == POISON) {
+				break;
+			}
+			if (item != null) {
+				pending.put(item.index, item);
+				while (pending.containsKey(next)) {
+					ImportItem ready = pending.remove(next++);
+					if ((ready.error == null) && !ready.isSkipped()) {
+						long start = System.nanoTime();
+						try {
+							this.importer.commit(ready, batch);
+							// counted with its share of the bulk write in flush()
+							ready.commitNanos = Math.max(1, System.nanoTime() - start);
+						} catch (Exception e) {
+							log.error("Import of '" + ready.path + "' failed in stage COMMIT: " + e.getMessage());
+							ready.error = e;
+							batch.pass(ready);
+						}
+					} else {
+						batch.pass(ready);
+					}
+				}
+			}
+			if ((batch.size() >= this.batchSize) || ((batch.size() > 0) && (batch.age() >= this.flushInterval))) {
+				flush(batch);
+			}
+		}
+		flush(batch);
+	}
+
+	/**
+	 * Write a batch and report its items in input order.
+	 */
+	private void flush(CommitBatch batch) {
+		if (batch.size() == 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		List<ImportItem> done = batch.flush();
+		long nanos = System.nanoTime() - start;
+		int written = 0;
+		for (ImportItem item : done) {
+			if (item.commitNanos > 0) {
+				written++;
+			}
+		}
+		for (ImportItem item : done) {
+			if (item.commitNanos > 0) {
+				// the bulk write is shared by the items that were written
+				this.report.stageDone(Stage.COMMIT, item.commitNanos + (nanos / written));
+			}
+			this.report.committed(item);
+			if (item.status != ImportItem.Status.RESUMED) {
+				journal(item.path, item.isImported() ? ImportJournal.State.COMMITTED : ImportJournal.State.FAILED);
+			}
+			if (this.listener != null) {
+				try {
+					this.listener.imported(item);
+				} catch (RuntimeException e) {
+					log.error("Import listener failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record the new state of a file in the journal, if any. When the journal
+	 * cannot be written, e.g. because the disk is full, the import is cancelled
+	 * instead of going on without a journal, and finish() reports the failure.
+	 */
+	private void journal(Path file, ImportJournal.State state) {
+		if ((this.journal == null) || (this.journalError != null)) {
+			return;
+		}
+		try {
+			this.journal.record(file, state);
+		} catch (RuntimeException e) {
+			log.error("Cannot write the import journal, cancelling the import: " + e.getMessage());
+			this.journalError = e;
+			cancel();
+		}
+	}
+
+	private static ThreadFactory namedThreads(Stage stage) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, "import-" + stage.name().toLowerCase() + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	private static void put(BlockingQueue<ImportItem> queue, ImportItem item) {
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static ImportItem poll(BlockingQueue<ImportItem> queue, long millis) {
+		try {
+			return queue.poll(millis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static ImportItem take(BlockingQueue<ImportItem> queue) {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+}
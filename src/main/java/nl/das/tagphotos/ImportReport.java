@@ -0,0 +1,265 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import nl.das.tagphotos.ImportPipeline.Stage;
+
+/**
+ * Throughput figures of an import run. The counters are updated by the
+ * pipeline workers while the import runs.
+ */
+public class ImportReport {
+
+	private final long started = System.nanoTime();
+	private volatile long finished;
+	private final AtomicInteger files = new AtomicInteger();
+	private final AtomicInteger imported = new AtomicInteger();
+	private final AtomicInteger replaced = new AtomicInteger();
+	private final AtomicInteger unchanged = new AtomicInteger();
+	private final AtomicInteger resumed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+	private final AtomicLongArray stageCount = new AtomicLongArray(Stage.values().length);
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> duplicates = Collections.synchronizedList(new ArrayList<>());
+	private volatile int decodeQueuePeak;
+	private volatile long decodeReservedPeak;
+
+	void submitted() {
+		this.files.incrementAndGet();
+	}
+
+	void stageDone(Stage stage, long nanos) {
+		this.stageNanos.addAndGet(stage.ordinal(), nanos);
+		this.stageCount.incrementAndGet(stage.ordinal());
+	}
+
+	void committed(ImportItem item) {
+		if (!item.isImported()) {
+			this.failed.incrementAndGet();
+			this.failures.add(item.path + ": " + item.error.getMessage());
+		} else if (item.status == ImportItem.Status.UNCHANGED) {
+			this.unchanged.incrementAndGet();
+		} else if (item.status == ImportItem.Status.RESUMED) {
+			this.resumed.incrementAndGet();
+		} else if (item.status == ImportItem.Status.DUPLICATE) {
+			String other = item.duplicateOf != null ? item.duplicateOf.toString()
+					: (item.previous.getOrigPath() != null ? item.previous.getOrigPath() : item.previous.getOrigFilename());
+			this.duplicates.add(item.path + " = " + other);
+		} else {
+			if (item.status == ImportItem.Status.CHANGED) {
+				this.replaced.incrementAndGet();
+			}
+			this.imported.incrementAndGet();
+			this.bytes.addAndGet(item.size);
+		}
+	}
+
+	void finish() {
+		this.finished = System.nanoTime();
+	}
+
+	void decodeMemory(DecodeScheduler scheduler) {
+		this.decodeQueuePeak = scheduler.getPeakQueueDepth();
+		this.decodeReservedPeak = scheduler.getPeakReservedBytes();
+	}
+
+	/**
+	 * @return the number of files offered to the pipeline
+	 */
+	public int getFiles() {
+		return this.files.get();
+	}
+
+	/**
+	 * @return the number of files imported successfully
+	 */
+	public int getImported() {
+		return this.imported.get();
+	}
+
+	/**
+	 * @return the number of imported files that replaced a previous import of
+	 *         the same file
+	 */
+	public int getReplaced() {
+		return this.replaced.get();
+	}
+
+	/**
+	 * @return the number of files skipped because they did not change
+	 */
+	public int getUnchanged() {
+		return this.unchanged.get();
+	}
+
+	/**
+	 * @return the number of files skipped because an earlier run of the same
+	 *         job committed them
+	 */
+	public int getResumed() {
+		return this.resumed.get();
+	}
+
+	/**
+	 * @return the files skipped because the same content was already imported
+	 *         from another file, as "file = other file"
+	 */
+	public List<String> getDuplicates() {
+		synchronized (this.duplicates) {
+			return new ArrayList<>(this.duplicates);
+		}
+	}
+
+	/**
+	 * @return the number of files that could not be imported
+	 */
+	public int getFailed() {
+		return this.failed.get();
+	}
+
+	/**
+	 * @return the total size of the imported files in bytes
+	 */
+	public long getBytes() {
+		return this.bytes.get();
+	}
+
+	/**
+	 * @return the failed files with the reason
+	 */
+	public List<String> getFailures() {
+		synchronized (this.failures) {
+			return new ArrayList<>(this.failures);
+		}
+	}
+
+	/**
+	 * @return the elapsed time in milliseconds, up to now if still running
+	 */
+	public long getElapsedMillis() {
+		long end = this.finished == 0 ? System.nanoTime() : this.finished;
+		return (end - this.started) / 1_000_000L;
+	}
+
+	/**
+	 * @return the number of files that went through the whole pipeline
+	 */
+	public int getHandled() {
+		return this.imported.get() + this.unchanged.get() + this.resumed.get() + this.duplicates.size()
+				+ this.failed.get();
+	}
+
+	/**
+	 * @return the number of files handled per second
+	 */
+	public double getFilesPerSecond() {
+		return perSecond(getHandled());
+	}
+
+	/**
+	 * @return the number of megabytes imported per second
+	 */
+	public double getMegabytesPerSecond() {
+		return perSecond(this.bytes.get() / (1024.0 * 1024.0));
+	}
+
+	/**
+	 * Average time a single file spent in a stage, not counting the time it
+	 * waited in the queue in front of it.
+	 *
+	 * @param stage the stage
+	 * @return the average latency in milliseconds
+	 */
+	public double getAverageMillis(Stage stage) {
+		long count = this.stageCount.get(stage.ordinal());
+		return count == 0 ? 0 : (this.stageNanos.get(stage.ordinal()) / (double) count) / 1_000_000.0;
+	}
+
+	/**
+	 * @return the largest number of decodes that waited for memory at the same
+	 *         time, see {@link DecodeScheduler}
+	 */
+	public int getDecodeQueuePeak() {
+		return this.decodeQueuePeak;
+	}
+
+	/**
+	 * @return the largest number of bytes reserved for decodes at the same time
+	 */
+	public long getDecodeReservedPeak() {
+		return this.decodeReservedPeak;
+	}
+
+	/**
+	 * The figures of the report for a machine to read, e.g. as JSON.
+	 *
+	 * @return the figures by name, in a fixed order
+	 */
+	public Map<String, Object> toSummary() {
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("files", getFiles());
+		summary.put("imported", getImported());
+		summary.put("replaced", getReplaced());
+		summary.put("unchanged", getUnchanged());
+		summary.put("resumed", getResumed());
+		summary.put("duplicates", getDuplicates().size());
+		summary.put("failed", getFailed());
+		summary.put("bytes", getBytes());
+		summary.put("elapsedMillis", getElapsedMillis());
+		summary.put("filesPerSecond", round(getFilesPerSecond()));
+		summary.put("megabytesPerSecond", round(getMegabytesPerSecond()));
+		Map<String, Object> stages = new LinkedHashMap<>();
+		for (Stage stage : Stage.values()) {
+			stages.put(stage.name().toLowerCase(), round(getAverageMillis(stage)));
+		}
+		summary.put("stageMillis", stages);
+		summary.put("decodeQueuePeak", getDecodeQueuePeak());
+		summary.put("decodeReservedPeak", getDecodeReservedPeak());
+		summary.put("failures", getFailures());
+		return summary;
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 100.0) / 100.0;
+	}
+
+	private double perSecond(double amount) {
+		long ms = getElapsedMillis();
+		return ms == 0 ? 0 : (amount * 1000.0) / ms;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(
+				"%d of %d files imported (%d replaced), %d unchanged, %d duplicates, %d failed in %.1f s (%.2f files/s, %.2f MB/s)",
+				getImported(), getFiles(), getReplaced(), getUnchanged(), this.duplicates.size(), getFailed(),
+				getElapsedMillis() / 1000.0, getFilesPerSecond(), getMegabytesPerSecond()));
+		if (getResumed() > 0) {
+			sb.append(String.format(", %d done in an earlier run", getResumed()));
+		}
+		for (Stage stage : Stage.values()) {
+			sb.append(String.format(", %s %.0f ms", stage.name().toLowerCase(), getAverageMillis(stage)));
+		}
+		sb.append(String.format(", at most %d decodes waited for memory, %.1f MB reserved", this.decodeQueuePeak,
+				this.decodeReservedPeak / (1024.0 * 1024.0)));
+		return sb.toString();
+	}
+}
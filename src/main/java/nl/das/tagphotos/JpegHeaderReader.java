@@ -0,0 +1,327 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the metadata of a JPEG file in a single pass over its header. Only the
+ * marker segments in front of the image data are visited: the EXIF block
+ * (APP1), the Photoshop/IPTC block (APP13) and the frame header (SOFn). The
+ * reading stops at the start of the scan, so the compressed image data is
+ * never touched.
+ */
+public class JpegHeaderReader {
+
+	private static final int SOI = 0xD8;
+	private static final int EOI = 0xD9;
+	private static final int SOS = 0xDA;
+	private static final int APP1 = 0xE1;
+	private static final int APP13 = 0xED;
+
+	private static final byte[] EXIF_ID = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PHOTOSHOP_ID = "Photoshop 3.0\0".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int EXIF_IFD_POINTER = 0x8769;
+	private static final int EXIF_PIXEL_X_DIMENSION = 0xA002;
+	private static final int EXIF_PIXEL_Y_DIMENSION = 0xA003;
+	private static final int IPTC_RESOURCE = 0x0404;
+
+	private JpegHeaderReader() {
+	}
+
+	/**
+	 * Read the metadata of a JPEG file.
+	 *
+	 * @param path the path of the file
+	 * @return the metadata
+	 * @throws IOException if the file cannot be read or is not a JPEG file
+	 */
+	public static ImageMetadata read(String path) throws IOException {
+		return read(Paths.get(path));
+	}
+
+	/**
+	 * Read the metadata of a JPEG file.
+	 *
+	 * @param path the path of the file
+	 * @return the metadata
+	 * @throws IOException if the file cannot be read or is not a JPEG file
+	 */
+	public static ImageMetadata read(Path path) throws IOException {
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			return read(ch, path.toString());
+		}
+	}
+
+	private static ImageMetadata read(FileChannel ch, String name) throws IOException {
+		ImageMetadata meta = new ImageMetadata();
+		ByteBuffer marker = ByteBuffer.allocate(4);
+		readFully(ch, marker, 0, name);
+		if (((marker.get(0) & 0xFF) != 0xFF) || ((marker.get(1) & 0xFF) != SOI)) {
+			throw new IOException("'" + name + "' is not a JPEG file");
+		}
+		ByteBuffer photoshop = null;
+		long pos = 2;
+		long end = ch.size();
+		while ((pos + 4) <= end) {
+			marker.clear().limit(2);
+			readFully(ch, marker, pos, name);
+			if ((marker.get(0) & 0xFF) != 0xFF) {
+				throw new IOException("'" + name + "' has a corrupt marker at position " + pos);
+			}
+			int code = marker.get(1) & 0xFF;
+			if (code == 0xFF) {
+				// fill byte
+				pos++;
+				continue;
+			}
+			if ((code == EOI) || (code == SOS)) {
+				break;
+			}
+			if ((code == 0x01) || ((code >= 0xD0) && (code <= 0xD7))) {
+				// standalone markers without a length
+				pos += 2;
+				continue;
+			}
+			marker.clear().limit(2);
+			readFully(ch, marker, pos + 2, name);
+			int length = marker.getShort(0) & 0xFFFF;
+			if (length < 2) {
+				throw new IOException("'" + name + "' has a corrupt segment length at position " + pos);
+			}
+			long payload = pos + 4;
+			int size = length - 2;
+			if (code == APP1) {
+				ByteBuffer buf = ByteBuffer.allocate(size);
+				readFully(ch, buf, payload, name);
+				if (startsWith(buf, EXIF_ID)) {
+					parseExif(slice(buf, EXIF_ID.length, size - EXIF_ID.length), meta);
+				}
+			} else if (code == APP13) {
+				ByteBuffer buf = ByteBuffer.allocate(size);
+				readFully(ch, buf, payload, name);
+				if (startsWith(buf, PHOTOSHOP_ID)) {
+					// a large IRB block may be split over several APP13 segments
+					ByteBuffer part = slice(buf, PHOTOSHOP_ID.length, size - PHOTOSHOP_ID.length);
+					photoshop = append(photoshop, part);
+				}
+			} else if (isFrameHeader(code) && (size >= 5)) {
+				ByteBuffer buf = ByteBuffer.allocate(5);
+				readFully(ch, buf, payload, name);
+				meta.setFrameSize(buf.getShort(3) & 0xFFFF, buf.getShort(1) & 0xFFFF);
+			}
+			pos = payload + size;
+		}
+		if (photoshop != null) {
+			parsePhotoshop(photoshop, meta);
+		}
+		return meta;
+	}
+
+	private static boolean isFrameHeader(int code) {
+		return (code >= 0xC0) && (code <= 0xCF) && (code != 0xC4) && (code != 0xC8) && (code != 0xCC);
+	}
+
+	/**
+	 * Walk the TIFF structure of the EXIF block to IFD0 and from there to the
+	 * EXIF IFD for the pixel dimensions.
+	 */
+	private static void parseExif(ByteBuffer tiff, ImageMetadata meta) {
+		if (tiff.remaining() < 8) {
+			return;
+		}
+		if ((tiff.get(0) == 'I') && (tiff.get(1) == 'I')) {
+			tiff.order(ByteOrder.LITTLE_ENDIAN);
+		} else if ((tiff.get(0) == 'M') && (tiff.get(1) == 'M')) {
+			tiff.order(ByteOrder.BIG_ENDIAN);
+		} else {
+			return;
+		}
+		long ifd0 = tiff.getInt(4) & 0xFFFFFFFFL;
+		long exifIfd = findTag(tiff, ifd0, EXIF_IFD_POINTER);
+		if (exifIfd > 0) {
+			long w = findTag(tiff, exifIfd, EXIF_PIXEL_X_DIMENSION);
+			long h = findTag(tiff, exifIfd, EXIF_PIXEL_Y_DIMENSION);
+			if ((w > 0) && (h > 0)) {
+				meta.setExifSize((int) w, (int) h);
+			}
+		}
+	}
+
+	/**
+	 * Find the (SHORT or LONG) value of a tag in an IFD.
+	 *
+	 * @return the value or -1 if not found
+	 */
+	private static long findTag(ByteBuffer tiff, long offset, int tag) {
+		if ((offset < 8) || ((offset + 2) > tiff.limit())) {
+			return -1;
+		}
+		int count = tiff.getShort((int) offset) & 0xFFFF;
+		for (int i = 0; i < count; i++) {
+			int entry = (int) offset + 2 + (i * 12);
+			if ((entry + 12) > tiff.limit()) {
+				return -1;
+			}
+			if ((tiff.getShort(entry) & 0xFFFF) == tag) {
+				int type = tiff.getShort(entry + 2) & 0xFFFF;
+				if (type == 3) {
+					return tiff.getShort(entry + 8) & 0xFFFF;
+				} else if (type == 4) {
+					return tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the IPTC resource in the Photoshop image resource blocks.
+	 */
+	private static void parsePhotoshop(ByteBuffer irb, ImageMetadata meta) {
+		irb.flip();
+		while (irb.remaining() >= 12) {
+			if ((irb.get() != '8') || (irb.get() != 'B') || (irb.get() != 'I') || (irb.get() != 'M')) {
+				return;
+			}
+			int id = irb.getShort() & 0xFFFF;
+			int nameLength = irb.get() & 0xFF;
+			// the pascal string including its length byte is padded to an even size
+			int skip = ((nameLength + 1) % 2) == 0 ? nameLength : nameLength + 1;
+			if (irb.remaining() < (skip + 4)) {
+				return;
+			}
+			irb.position(irb.position() + skip);
+			long size = irb.getInt() & 0xFFFFFFFFL;
+			if (size > irb.remaining()) {
+				return;
+			}
+			if (id == IPTC_RESOURCE) {
+				meta.setIptc(true);
+				parseIptc(slice(irb, irb.position(), (int) size), meta);
+			}
+			irb.position((int) Math.min(irb.limit(), irb.position() + size + (size % 2)));
+		}
+	}
+
+	/**
+	 * Read the keywords (2:25), date created (2:55) and time created (2:60) from
+	 * the IPTC datasets.
+	 */
+	private static void parseIptc(ByteBuffer iptc, ImageMetadata meta) {
+		boolean utf8 = false;
+		while (iptc.remaining() >= 5) {
+			if (iptc.get() != 0x1C) {
+				return;
+			}
+			int record = iptc.get() & 0xFF;
+			int dataset = iptc.get() & 0xFF;
+			int size = iptc.getShort() & 0xFFFF;
+			if ((size & 0x8000) != 0) {
+				// extended dataset: the size is stored in the next (size & 0x7FFF) bytes
+				int n = size & 0x7FFF;
+				if ((n > 4) || (iptc.remaining() < n)) {
+					return;
+				}
+				size = 0;
+				for (int i = 0; i < n; i++) {
+					size = (size << 8) | (iptc.get() & 0xFF);
+				}
+			}
+			if ((size < 0) || (size > iptc.remaining())) {
+				return;
+			}
+			byte[] data = new byte[size];
+			iptc.get(data);
+			if ((record == 1) && (dataset == 90)) {
+				// coded character set ESC % G means UTF-8
+				utf8 = (size >= 3) && (data[0] == 0x1B) && (data[1] == '%') && (data[2] == 'G');
+			} else if (record == 2) {
+				if (dataset == 25) {
+					meta.addKeyword(decode(data, utf8));
+				} else if (dataset == 55) {
+					meta.setDateCreated(decode(data, utf8));
+				} else if (dataset == 60) {
+					meta.setTimeCreated(decode(data, utf8));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decode IPTC text. Without a character set declaration it is tried as UTF-8
+	 * first and read as Latin-1 if that fails.
+	 */
+	private static String decode(byte[] data, boolean utf8) {
+		if (utf8) {
+			return new String(data, StandardCharsets.UTF_8).trim();
+		}
+		try {
+			return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(data)).toString().trim();
+		} catch (CharacterCodingException e) {
+			return new String(data, StandardCharsets.ISO_8859_1).trim();
+		}
+	}
+
+	private static boolean startsWith(ByteBuffer buf, byte[] prefix) {
+		if (buf.limit() < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (buf.get(i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+		ByteBuffer dup = buf.duplicate();
+		dup.clear().position(offset).limit(offset + length);
+		return dup.slice();
+	}
+
+	private static ByteBuffer append(ByteBuffer to, ByteBuffer part) {
+		if (to == null) {
+			to = ByteBuffer.allocate(Math.max(part.remaining(), 4096));
+		} else if (to.remaining() < part.remaining()) {
+			ByteBuffer bigger = ByteBuffer.allocate(to.capacity() + part.remaining());
+			to.flip();
+			bigger.put(to);
+			to = bigger;
+		}
+		to.put(part);
+		return to;
+	}
+
+	private static void readFully(FileChannel ch, ByteBuffer buf, long position, String name) throws IOException {
+		long pos = position;
+		while (buf.hasRemaining()) {
+			int n = ch.read(buf, pos);
+			if (n < 0) {
+				throw new EOFException("Unexpected end of '" + name + "' at position " + pos);
+			}
+			pos += n;
+		}
+		buf.flip();
+	}
+}
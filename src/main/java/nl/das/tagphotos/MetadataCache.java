@@ -0,0 +1,331 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the metadata of the photos that were read before in a file, so a
+ * folder that is opened again does not have to be parsed again. An entry is
+ * used only as long as the size and the modification time of the photo are
+ * the same as when it was read.
+ * <p>
+ * The file is a log: new entries are appended and the last entry of a photo
+ * wins. When the file holds more than twice the number of entries in use, it
+ * is rewritten with only the entries of photos that still exist. A record
+ * that was not written completely, because the program stopped, is dropped.
+ */
+@Slf4j
+public class MetadataCache {
+
+	private static final int MAGIC = 0x54504D43;
+	/** 2: the frame and EXIF sizes are kept apart */
+	private static final int VERSION = 2;
+	/** Do not compact files with fewer records than this */
+	private static final int MIN_COMPACT = 1000;
+	/** No record is larger than this; a larger length means the file is damaged */
+	private static final int MAX_RECORD = 1 << 20;
+
+	private static final Map<Path, MetadataCache> caches = new HashMap<>();
+
+	private final Path file;
+	private final Map<String, Entry> entries = new HashMap<>();
+	private DataOutputStream out;
+	private int records;
+	private long hits;
+	private long misses;
+
+	/**
+	 * The metadata of a photo and the version of the file it was read from.
+	 */
+	private static class Entry {
+		final long size;
+		final long modified;
+		final ImageMetadata meta;
+
+		Entry(long size, long modified, ImageMetadata meta) {
+			this.size = size;
+			this.modified = modified;
+			this.meta = meta;
+		}
+	}
+
+	/**
+	 * Get the cache that is configured with {@code metadata.cache.file}. All
+	 * users of the same file share one cache.
+	 *
+	 * @param conf configuration properties
+	 * @return the cache
+	 */
+	public static MetadataCache get(Properties conf) {
+		Path file = Paths.get(conf.getProperty("metadata.cache.file",
+				System.getProperty("user.home") + "/.tagphotos/metadata.cache")).toAbsolutePath();
+		synchronized (caches) {
+			return caches.computeIfAbsent(file, MetadataCache::new);
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param file the cache file, created if it does not exist
+	 */
+	MetadataCache(Path file) {
+		this.file = file;
+		try {
+			if (file.getParent() != null) {
+				Files.createDirectories(file.getParent());
+			}
+			long valid = load();
+			if ((this.records >= MIN_COMPACT) && (this.records > (2 * this.entries.size()))) {
+				compact();
+			} else {
+				open(valid);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		log.debug("Metadata cache '" + file + "' has " + this.entries.size() + " photos");
+	}
+
+	/**
+	 * Get the metadata of a photo from the cache, or read it from the photo
+	 * when the photo is not in the cache or has changed since.
+	 *
+	 * @param path the photo
+	 * @return the metadata, do not modify
+	 * @throws IOException if the photo cannot be read
+	 */
+	public ImageMetadata read(Path path) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		String key = path.toAbsolutePath().toString();
+		synchronized (this) {
+			Entry e = this.entries.get(key);
+			if ((e != null) && (e.size == attrs.size()) && (e.modified == attrs.lastModifiedTime().toMillis())) {
+				this.hits++;
+				return e.meta;
+			}
+			this.misses++;
+		}
+		ImageMetadata meta = JpegHeaderReader.read(path);
+		put(key, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), meta));
+		return meta;
+	}
+
+	/**
+	 * Read the metadata of a photo that was just written and store it.
+	 *
+	 * @param path the photo
+	 * @return the metadata, do not modify
+	 * @throws IOException if the photo cannot be read
+	 */
+	public ImageMetadata update(Path path) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		ImageMetadata meta = JpegHeaderReader.read(path);
+		put(path.toAbsolutePath().toString(), new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), meta));
+		return meta;
+	}
+
+	/**
+	 * @return the number of photos whose metadata did not have to be read
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return the number of photos whose metadata had to be read
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Close the file. The cache is reopened by the next read.
+	 */
+	public synchronized void close() {
+		if (this.out != null) {
+			try {
+				this.out.close();
+			} catch (IOException e) {
+				log.warn("Cannot close '" + this.file + "': " + e.getMessage());
+			}
+			this.out = null;
+		}
+	}
+
+	private synchronized void put(String key, Entry e) {
+		this.entries.put(key, e);
+		try {
+			if (this.out == null) {
+				open(Files.size(this.file));
+			}
+			writeRecord(this.out, key, e);
+			this.out.flush();
+			this.records++;
+		} catch (IOException ex) {
+			// the cache is only an optimization
+			log.warn("Cannot write to '" + this.file + "': " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Read all records.
+	 *
+	 * @return the length of the file up to the last complete record
+	 */
+	private long load() throws IOException {
+		if (!Files.exists(this.file) || (Files.size(this.file) == 0)) {
+			return 0;
+		}
+		long valid = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+				log.warn("'" + this.file + "' is not a metadata cache of this version, it is replaced");
+				return 0;
+			}
+			valid = 8;
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length = in.readInt();
+				if ((length <= 0) || (length > MAX_RECORD)) {
+					break;
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				long checksum = in.readLong();
+				crc.reset();
+				crc.update(record);
+				if (crc.getValue() != checksum) {
+					break;
+				}
+				readRecord(record);
+				this.records++;
+				valid += 4 + length + 8;
+			}
+		} catch (EOFException e) {
+			// end of the file or a record that was not written completely
+		}
+		if (valid < Files.size(this.file)) {
+			log.info("Dropped an incomplete record at the end of '" + this.file + "'");
+		}
+		return valid;
+	}
+
+	/**
+	 * Open the file for appending after the last complete record.
+	 */
+	private void open(long valid) throws IOException {
+		try (FileChannel ch = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			ch.truncate(valid);
+		}
+		this.out = new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(this.file, StandardOpenOption.APPEND)));
+		if (valid == 0) {
+			writeHeader(this.out);
+			this.out.flush();
+			this.records = 0;
+		}
+	}
+
+	/**
+	 * Write the entries of the photos that still exist to a new file and
+	 * replace the old file with it.
+	 */
+	private void compact() throws IOException {
+		int before = this.records;
+		this.entries.keySet().removeIf(key -> !Files.exists(Paths.get(key)));
+		Path tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+		try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			writeHeader(o);
+			for (Map.Entry<String, Entry> e : this.entries.entrySet()) {
+				writeRecord(o, e.getKey(), e.getValue());
+			}
+		}
+		Files.move(tmp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.records = this.entries.size();
+		log.info("Compacted '" + this.file + "' from " + before + " to " + this.records + " records");
+		open(Files.size(this.file));
+	}
+
+	private static void writeHeader(DataOutputStream o) throws IOException {
+		o.writeInt(MAGIC);
+		o.writeInt(VERSION);
+	}
+
+	private static void writeRecord(OutputStream o, String key, Entry e) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream rec = new DataOutputStream(bytes);
+		rec.writeUTF(key);
+		rec.writeLong(e.size);
+		rec.writeLong(e.modified);
+		rec.writeBoolean(e.meta.hasIptc());
+		rec.writeInt(e.meta.getKeywords().size());
+		for (String kw : e.meta.getKeywords()) {
+			rec.writeUTF(kw);
+		}
+		rec.writeUTF(e.meta.getDateCreated() == null ? "" : e.meta.getDateCreated());
+		rec.writeUTF(e.meta.getTimeCreated() == null ? "" : e.meta.getTimeCreated());
+		rec.writeInt(e.meta.getFrameWidth());
+		rec.writeInt(e.meta.getFrameHeight());
+		rec.writeInt(e.meta.getExifWidth());
+		rec.writeInt(e.meta.getExifHeight());
+		byte[] record = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		DataOutputStream d = new DataOutputStream(o);
+		d.writeInt(record.length);
+		d.write(record);
+		d.writeLong(crc.getValue());
+	}
+
+	private void readRecord(byte[] record) throws IOException {
+		try (InputStream is = new ByteArrayInputStream(record)) {
+			DataInputStream rec = new DataInputStream(is);
+			String key = rec.readUTF();
+			long size = rec.readLong();
+			long modified = rec.readLong();
+			ImageMetadata meta = new ImageMetadata();
+			meta.setIptc(rec.readBoolean());
+			int keywords = rec.readInt();
+			for (int i = 0; i < keywords; i++) {
+				meta.addKeyword(rec.readUTF());
+			}
+			String date = rec.readUTF();
+			String time = rec.readUTF();
+			meta.setDateCreated(date.isEmpty() ? null : date);
+			meta.setTimeCreated(time.isEmpty() ? null : time);
+			meta.setFrameSize(rec.readInt(), rec.readInt());
+			meta.setExifSize(rec.readInt(), rec.readInt());
+			this.entries.put(key, new Entry(size, modified, meta));
+		}
+	}
+}
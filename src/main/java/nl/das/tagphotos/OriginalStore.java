@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stores the original of a photo byte for byte, so it keeps its quality and
+ * all of its metadata. When configured, and source and target are on the same
+ * file system, the original is hard linked instead of copied. The SHA-256
+ * checksum of the content is computed in the same pass over the bytes.
+ */
+@Slf4j
+public class OriginalStore {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final boolean link;
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf configuration properties
+	 */
+	public OriginalStore(Properties conf) {
+		this.link = Boolean.parseBoolean(conf.getProperty("import.originals.link", "false"));
+	}
+
+	/**
+	 * Store a copy of the source file at the target path.
+	 *
+	 * @param source   the original file
+	 * @param target   the file to create
+	 * @param checksum the checksum of the source if it is already known, else
+	 *                 null
+	 * @return the SHA-256 checksum of the content as a hex string
+	 * @throws IOException
+	 */
+	public String store(Path source, Path target, String checksum) throws IOException {
+		if (this.link && Files.getFileStore(source).equals(Files.getFileStore(target.getParent()))) {
+			try {
+				Files.createLink(target, source);
+				return checksum != null ? checksum : checksum(source, null);
+			} catch (UnsupportedOperationException | FileSystemException e) {
+				log.debug("Cannot link '" + target + "' to '" + source + "', copying it: " + e.getMessage());
+			}
+		}
+		try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			String sum = checksum;
+			if (sum == null) {
+				sum = checksum(source, out);
+			} else {
+				// the checksum is known, so the kernel can do the copy
+				try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+					long size = in.size();
+					long pos = 0;
+					while (pos < size) {
+						pos += in.transferTo(pos, size - pos, out);
+					}
+				}
+			}
+			Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+			return sum;
+		}
+	}
+
+	/**
+	 * Compute the SHA-256 checksum of a file.
+	 *
+	 * @param source the file
+	 * @return the checksum as a hex string
+	 * @throws IOException
+	 */
+	public static String checksum(Path source) throws IOException {
+		return checksum(source, null);
+	}
+
+	/**
+	 * Stream a file through the digest and, if given, into a target channel.
+	 */
+	private static String checksum(Path source, FileChannel out) throws IOException {
+		MessageDigest digest = sha256();
+		ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+			while (in.read(buf) >= 0) {
+				buf.flip();
+				digest.update(buf.duplicate());
+				if (out != null) {
+					while (buf.hasRemaining()) {
+						out.write(buf);
+					}
+				}
+				buf.clear();
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
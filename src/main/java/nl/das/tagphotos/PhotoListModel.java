@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.das.tagphotos.model.Photo;
+
+/**
+ * A list of photos that only holds the pages of photos around the current
+ * position in memory. The photos are identified by the bitmap of their
+ * ordinals, so the list can be as long as the album and any position can be
+ * reached without loading the photos in between.
+ * <p>
+ * The pages next to the current page are loaded in the background, so
+ * browsing photo by photo seldom waits for the database. Pages farther away
+ * than {@code viewer.page.window} pages are dropped.
+ */
+@Slf4j
+public class PhotoListModel extends AbstractListModel<Photo> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient PhotoLoader loader;
+	private final transient RoaringBitmap ordinals;
+	private final int size;
+	private final int pageSize;
+	private final int window;
+	private final transient ExecutorService executor;
+	private final transient Map<Integer, List<Photo>> pages = new HashMap<>();
+	private final transient Map<Integer, Future<List<Photo>>> loading = new HashMap<>();
+	private int currentPage;
+
+	/**
+	 * Constructor
+	 *
+	 * @param loader   loads the photos
+	 * @param ordinals the ordinals of the photos in the list, not modified
+	 * @param conf     configuration properties
+	 */
+	public PhotoListModel(PhotoLoader loader, RoaringBitmap ordinals, Properties conf) {
+		this.loader = loader;
+		this.ordinals = ordinals;
+		this.size = ordinals.getCardinality();
+		this.pageSize = Math.min(PhotoLoader.CHUNK_SIZE,
+				Math.max(1, Integer.parseInt(conf.getProperty("viewer.page.size", "100"))));
+		this.window = Math.max(1, Integer.parseInt(conf.getProperty("viewer.page.window", "2")));
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "photo-pages");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	@Override
+	public int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Get a photo if its page is loaded; otherwise the page is requested and
+	 * the listeners are told when it has arrived.
+	 *
+	 * @param index the position
+	 * @return the photo, or null if it is not loaded yet
+	 */
+	@Override
+	public synchronized Photo getElementAt(int index) {
+		int page = index / this.pageSize;
+		List<Photo> photos = this.pages.get(page);
+		if (photos == null) {
+			request(page);
+			return null;
+		}
+		return photoOf(photos, index);
+	}
+
+	/**
+	 * Get a photo and make its position the current one. Waits for the page of
+	 * the photo if it is not loaded yet, so do not call it on the event thread:
+	 * use {@link #setCurrent(int)} and {@link #getElementAt(int)} there and
+	 * wait for the contents changed event.
+	 *
+	 * @param index the position
+	 * @return the photo, or null if it no longer exists
+	 */
+	public Photo get(int index) {
+		Future<List<Photo>> future;
+		synchronized (this) {
+			setCurrent(index);
+			List<Photo> photos = this.pages.get(this.currentPage);
+			if (photos != null) {
+				return photoOf(photos, index);
+			}
+			future = request(this.currentPage);
+		}
+		try {
+			return photoOf(future.get(), index);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Make a position the current one: the pages next to it are loaded and the
+	 * pages far away are dropped.
+	 *
+	 * @param index the position
+	 */
+	public synchronized void setCurrent(int index) {
+		this.currentPage = index / this.pageSize;
+		this.pages.keySet().removeIf(p -> Math.abs(p - this.currentPage) > this.window);
+		for (int p = this.currentPage - 1; p <= (this.currentPage + 1); p++) {
+			if ((p >= 0) && (((long) p * this.pageSize) < this.size) && !this.pages.containsKey(p)) {
+				request(p);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of pages in memory
+	 */
+	public synchronized int getLoadedPages() {
+		return this.pages.size();
+	}
+
+	/**
+	 * Stop loading pages. The model can not be used anymore.
+	 */
+	public void dispose() {
+		this.executor.shutdownNow();
+	}
+
+	private Photo photoOf(List<Photo> photos, int index) {
+		int offset = index % this.pageSize;
+		return offset < photos.size() ? photos.get(offset) : null;
+	}
+
+	private Future<List<Photo>> request(int page) {
+		Future<List<Photo>> future = this.loading.get(page);
+		if (future == null) {
+			future = this.executor.submit(() -> load(page));
+			this.loading.put(page, future);
+		}
+		return future;
+	}
+
+	private List<Photo> load(int page) {
+		List<Integer> ords = new ArrayList<>();
+		int from = page * this.pageSize;
+		PeekableIntIterator it = this.ordinals.getIntIterator();
+		it.advanceIfNeeded(this.ordinals.select(from));
+		while (it.hasNext() && (ords.size() < this.pageSize)) {
+			ords.add(it.next());
+		}
+		List<Photo> photos = this.loader.byOrdinals(ords);
+		synchronized (this) {
+			this.loading.remove(page);
+			if (Math.abs(page - this.currentPage) <= this.window) {
+				this.pages.put(page, photos);
+			}
+		}
+		log.debug("Loaded page " + page + " with " + photos.size() + " photos");
+		int to = (from + ords.size()) - 1;
+		SwingUtilities.invokeLater(() -> fireContentsChanged(this, from, to));
+		return photos;
+	}
+}
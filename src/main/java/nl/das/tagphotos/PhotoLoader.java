@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import nl.das.tagphotos.model.Photo;
+
+/**
+ * Loads photos by ordinal with one $in query per page instead of one query per
+ * photo. Only the fields needed to show and tag a photo are loaded.
+ */
+public class PhotoLoader {
+
+	/** Maximum number of ids in one query */
+	static final int CHUNK_SIZE = 1000;
+	/** The fields of a photo needed to show and tag it */
+	static final Bson PROJECTION = include("tags", "origFilename", "path", "ordinal", "creationDate", "photoWidth",
+			"photoHeight", "thumbWidth", "thumbHeight");
+
+	private final MongoCollection<Photo> pcol;
+
+	/**
+	 * Constructor
+	 *
+	 * @param database MongoDatabase object
+	 */
+	public PhotoLoader(MongoDatabase database) {
+		this.pcol = database.getCollection("photos", Photo.class);
+	}
+
+	/**
+	 * Load photos by ordinal with one query.
+	 *
+	 * @param ordinals at most {@value #CHUNK_SIZE} ordinals
+	 * @return the photos, sorted on creation date
+	 */
+	public List<Photo> byOrdinals(List<Integer> ordinals) {
+		List<Photo> photos = new ArrayList<>();
+		this.pcol.find(in("ordinal", ordinals)).projection(PROJECTION).sort(ascending("creationDate")).into(photos);
+		return photos;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Keeps the bitmaps of the most recently used tags in memory, up to a number
+ * of bytes. A bitmap is only returned for the version of the tag it was
+ * loaded with, so a tag that was changed by another program is loaded again.
+ * <p>
+ * The bitmaps in the cache are shared and must not be modified.
+ */
+public class PostingListCache {
+
+	private final long maxBytes;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private long hits;
+	private long misses;
+
+	private static class Entry {
+		final long version;
+		final RoaringBitmap bitmap;
+		final long size;
+
+		Entry(long version, RoaringBitmap bitmap) {
+			this.version = version;
+			this.bitmap = bitmap;
+			this.size = bitmap.getLongSizeInBytes();
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes the maximum size of the cached bitmaps together
+	 */
+	public PostingListCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Get the bitmap of a tag.
+	 *
+	 * @param tag     the tag
+	 * @param version the current version of the tag
+	 * @return the bitmap or null if it is not cached for this version
+	 */
+	public synchronized RoaringBitmap get(String tag, long version) {
+		Entry e = this.entries.get(tag);
+		if ((e != null) && (e.version == version)) {
+			this.hits++;
+			return e.bitmap;
+		}
+		this.misses++;
+		return null;
+	}
+
+	/**
+	 * Add the bitmap of a tag, removing the least recently used ones if the
+	 * cache gets too large.
+	 *
+	 * @param tag     the tag
+	 * @param version the version of the tag the bitmap was loaded with
+	 * @param bitmap  the bitmap
+	 */
+	public synchronized void put(String tag, long version, RoaringBitmap bitmap) {
+		Entry e = new Entry(version, bitmap);
+		if (e.size > this.maxBytes) {
+			return;
+		}
+		Entry old = this.entries.put(tag, e);
+		if (old != null) {
+			this.bytes -= old.size;
+		}
+		this.bytes += e.size;
+		Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+		while ((this.bytes > this.maxBytes) && it.hasNext()) {
+			this.bytes -= it.next().getValue().size;
+			it.remove();
+		}
+	}
+
+	/**
+	 * @param tag the tag
+	 * @return true if the tag has a bitmap in the cache, of any version
+	 */
+	public synchronized boolean contains(String tag) {
+		return this.entries.containsKey(tag);
+	}
+
+	/**
+	 * @return the number of bytes used by the cached bitmaps
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return the number of times a bitmap was found
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return the number of times a bitmap had to be loaded
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+}
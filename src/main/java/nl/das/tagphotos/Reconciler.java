@@ -0,0 +1,289 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.include;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.das.tagphotos.model.Photo;
+
+/**
+ * Compares the photos in the database with the files in the year folders of
+ * {@code path.photos} and reports, or fixes, the differences:
+ * <ul>
+ * <li>unpublished: the files of a committed photo still have their temporary
+ * name; fixed by renaming them</li>
+ * <li>temporary: the files of a photo that was never committed; fixed by
+ * deleting them</li>
+ * <li>orphan: a file without a photo; fixed by deleting it</li>
+ * <li>missing: a photo without its original; fixed by removing the photo</li>
+ * <li>incomplete: a photo with its original but without a rendition; import
+ * the original again</li>
+ * </ul>
+ * The year folders are compared in parallel, one year at a time per thread:
+ * the ids of the files of a year are collected and the photos of that year are
+ * streamed from the database, so neither side is held in memory as a whole.
+ * Files changed less than {@code reconcile.grace.ms} ago are left alone, as
+ * they may belong to an import that is still running.
+ */
+@Slf4j
+public class Reconciler {
+
+	private static final int ALL = (1 << ImageImporter.KINDS.length) - 1;
+
+	private final MongoCollection<Photo> pcol;
+	private final ImageImporter importer;
+	private final String photosPath;
+	private final int threads;
+	private final long grace;
+	private final Map<String, AtomicInteger> counts = new LinkedHashMap<>();
+	private boolean fix;
+	private Consumer<String> out;
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf     configuration properties
+	 * @param database MongoDatabase object
+	 */
+	public Reconciler(Properties conf, MongoDatabase database) {
+		this.pcol = database.getCollection("photos", Photo.class);
+		this.importer = new ImageImporter(conf, database);
+		String path = conf.getProperty("path.photos");
+		this.photosPath = path.endsWith("/") ? path : path + "/";
+		this.threads = Integer.parseInt(conf.getProperty("reconcile.threads",
+				"" + Runtime.getRuntime().availableProcessors()));
+		this.grace = Long.parseLong(conf.getProperty("reconcile.grace.ms", "3600000"));
+		for (String kind : new String[] { "unpublished", "temporary", "orphan", "missing", "incomplete" }) {
+			this.counts.put(kind, new AtomicInteger());
+		}
+	}
+
+	/**
+	 * Compare the database with the files.
+	 *
+	 * @param fix true to fix the differences, false to only report them
+	 * @param out receives a line for every difference, from several threads
+	 * @return the number of differences by kind
+	 */
+	public Map<String, Integer> reconcile(boolean fix, Consumer<String> out) {
+		this.fix = fix;
+		this.out = out;
+		for (AtomicInteger count : this.counts.values()) {
+			count.set(0);
+		}
+		// the years on disk and the years in the database
+		TreeSet<String> years = new TreeSet<>();
+		try (DirectoryStream<Path> dirs = Files.newDirectoryStream(Paths.get(this.photosPath), Files::isDirectory)) {
+			for (Path dir : dirs) {
+				years.add(dir.getFileName().toString());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		for (String path : this.pcol.distinct("path", String.class)) {
+			if (path.startsWith(this.photosPath)) {
+				years.add(path.substring(this.photosPath.length()));
+			}
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, this.threads));
+		try {
+			List<Future<?>> done = new ArrayList<>();
+			for (String year : years) {
+				done.add(pool.submit(() -> reconcileYear(year)));
+			}
+			for (Future<?> f : done) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		Map<String, Integer> result = new LinkedHashMap<>();
+		for (Map.Entry<String, AtomicInteger> e : this.counts.entrySet()) {
+			result.put(e.getKey(), e.getValue().get());
+		}
+		return result;
+	}
+
+	private void reconcileYear(String year) {
+		String folder = this.photosPath + year;
+		// the kinds of files found per id, one bit per kind
+		Map<String, Integer> files = new HashMap<>();
+		for (int k = 0; k < ImageImporter.KINDS.length; k++) {
+			Path dir = Paths.get(folder, ImageImporter.KINDS[k]);
+			if (!Files.isDirectory(dir)) {
+				continue;
+			}
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+				for (Path file : ds) {
+					String name = file.getFileName().toString();
+					if (name.endsWith(ImageImporter.TEMP)) {
+						temporary(file, name.substring(0, name.length() - ImageImporter.TEMP.length()), k, files);
+					} else if (name.endsWith(".jpg")) {
+						files.merge(name.substring(0, name.length() - 4), 1 << k, (a, b) -> a | b);
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		try (MongoCursor<Photo> photos = this.pcol.find(eq("path", folder)).projection(include("_id")).cursor()) {
+			while (photos.hasNext()) {
+				String id = photos.next().getId();
+				Integer found = files.remove(id);
+				int mask = found == null ? 0 : found;
+				if (mask != ALL) {
+					// the photo may have been committed and published after the folders
+					// were listed, e.g. by the watch daemon
+					mask = recheck(folder, id, mask);
+				}
+				if ((mask & 1) == 0) {
+					if (Files.exists(Paths.get(folder, ImageImporter.KINDS[0], id + ImageImporter.TEMP))) {
+						// committed just now, its files are being renamed
+						continue;
+					}
+					report("missing", "photo " + id + " in " + folder + " has no original", true);
+					if (this.fix) {
+						Photo p = this.pcol.find(eq("_id", id)).first();
+						if (p != null) {
+							this.importer.remove(p);
+							deleteFiles(folder, id);
+						}
+					}
+				} else if (mask != ALL) {
+					report("incomplete", "photo " + id + " in " + folder + " misses a rendition, import its original again",
+							false);
+				}
+			}
+		}
+		// the files left have no photo
+		for (String id : files.keySet()) {
+			for (String kind : ImageImporter.KINDS) {
+				Path file = Paths.get(folder, kind, id + ".jpg");
+				if (Files.exists(file) && isOld(file)) {
+					report("orphan", file.toString(), true);
+					if (this.fix) {
+						delete(file);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Look again for the files of a photo that were not in the listing.
+	 *
+	 * @return the kinds of files found, one bit per kind
+	 */
+	private static int recheck(String folder, String id, int mask) {
+		for (int k = 0; k < ImageImporter.KINDS.length; k++) {
+			if (((mask & (1 << k)) == 0) && Files.exists(Paths.get(folder, ImageImporter.KINDS[k], id + ".jpg"))) {
+				mask |= 1 << k;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * A file with a temporary name: rename it when its photo was committed,
+	 * else delete it.
+	 */
+	private void temporary(Path file, String id, int kind, Map<String, Integer> files) {
+		if (!isOld(file)) {
+			return;
+		}
+		if (this.pcol.find(eq("_id", id)).projection(include("_id")).first() != null) {
+			report("unpublished", file.toString(), true);
+			if (this.fix) {
+				try {
+					Files.move(file, file.resolveSibling(id + ".jpg"), StandardCopyOption.ATOMIC_MOVE);
+					files.merge(id, 1 << kind, (a, b) -> a | b);
+				} catch (IOException e) {
+					log.warn("Cannot rename '" + file + "': " + e.getMessage());
+				}
+			}
+		} else {
+			report("temporary", file.toString(), true);
+			if (this.fix) {
+				delete(file);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the file did not change during the grace period. The
+	 *         change time is used where possible, as an original keeps the
+	 *         modification time of the file it was imported from.
+	 */
+	private boolean isOld(Path file) {
+		try {
+			FileTime changed;
+			try {
+				changed = (FileTime) Files.getAttribute(file, "unix:ctime");
+			} catch (UnsupportedOperationException | IllegalArgumentException e) {
+				changed = Files.getLastModifiedTime(file);
+			}
+			return (System.currentTimeMillis() - changed.toMillis()) >= this.grace;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void report(String kind, String line, boolean fixable) {
+		this.counts.get(kind).incrementAndGet();
+		synchronized (this.out) {
+			this.out.accept((this.fix && fixable ? "fixed " : "") + kind + ": " + line);
+		}
+	}
+
+	private void deleteFiles(String folder, String id) {
+		for (String kind : ImageImporter.KINDS) {
+			delete(Paths.get(folder, kind, id + ".jpg"));
+		}
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("Cannot delete '" + file + "': " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes a JPEG file at a reduced scale. When the rendition that is needed is
+ * much smaller than the original, only every 2nd, 4th or 8th pixel of every
+ * 2nd, 4th or 8th row is kept while decoding, so the full resolution image is
+ * never held in memory.
+ */
+public class RenditionEngine {
+
+	private static final int[] SCALES = { 8, 4, 2 };
+
+	private RenditionEngine() {
+	}
+
+	/**
+	 * Decode an image at the smallest scale of 1/1, 1/2, 1/4 or 1/8 that is
+	 * still at least as large as the image fitted in the given box.
+	 *
+	 * @param path      the JPEG file
+	 * @param maxWidth  width of the box
+	 * @param maxHeight height of the box
+	 * @return the decoded image
+	 * @throws IOException if the file cannot be decoded by ImageIO
+	 */
+	public static BufferedImage decode(Path path, int maxWidth, int maxHeight) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(path.toFile())) {
+			if (iis == null) {
+				throw new IOException("Cannot open '" + path + "'");
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				throw new IOException("No image reader for '" + path + "'");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, true, true);
+				// the size in the frame header, EXIF may be out of date after editing
+				int scale = getScale(reader.getWidth(0), reader.getHeight(0), maxWidth, maxHeight);
+				ImageReadParam param = reader.getDefaultReadParam();
+				if (scale > 1) {
+					param.setSourceSubsampling(scale, scale, 0, 0);
+				}
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Determine the largest subsampling factor that keeps the decoded image at
+	 * least as large as the original fitted in the box.
+	 *
+	 * @param width     width of the original
+	 * @param height    height of the original
+	 * @param maxWidth  width of the box
+	 * @param maxHeight height of the box
+	 * @return 1, 2, 4 or 8
+	 */
+	public static int getScale(int width, int height, int maxWidth, int maxHeight) {
+		if ((width <= 0) || (height <= 0) || ((width <= maxWidth) && (height <= maxHeight))) {
+			return 1;
+		}
+		// the size of the image when fitted in the box
+		double factor = Math.min((double) maxWidth / width, (double) maxHeight / height);
+		double fitWidth = Math.ceil(width * factor);
+		double fitHeight = Math.ceil(height * factor);
+		for (int scale : SCALES) {
+			if (((width / scale) >= fitWidth) && ((height / scale) >= fitHeight)) {
+				return scale;
+			}
+		}
+		return 1;
+	}
+}
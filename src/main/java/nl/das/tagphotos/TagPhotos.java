@@ -15,12 +15,19 @@ import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
 import java.awt.BorderLayout;
+import java.awt.CardLayout;
 import java.awt.Dimension;
 import java.awt.EventQueue;
 import java.awt.FlowLayout;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GridLayout;
 import java.awt.Insets;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -31,15 +38,18 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 import javax.swing.BoxLayout;
-import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
@@ -47,17 +57,23 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextField;
+import javax.swing.JToggleButton;
 import javax.swing.ProgressMonitor;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.codecs.pojo.PojoCodecProvider;
+import org.roaringbitmap.RoaringBitmap;
 
 import com.icafe4j.image.meta.Metadata;
 import com.icafe4j.image.meta.MetadataType;
@@ -85,12 +101,40 @@ public class TagPhotos {
 
 	private static MongoClient mongoClient;
 	private static MongoDatabase database;
+	private TagStore tagStore;
+	private TagQueryEngine queryEngine;
+	private PhotoLoader photoLoader;
+	private ImageCache imageCache;
+	private int prefetchNext;
+	private int prefetchPrevious;
 	private static Properties conf = new Properties();
 	private String photosPath;
 	private File selectedFolder;
 	private List<Path> photoFiles;
-	private List<Photo> photos;
+	private PhotoListModel photos;
 	private int curIndex;
+	/** The photo to show when its page arrives, -1 for none */
+	private int pendingIndex = -1;
+	/** Shows the photo that was waiting for its page */
+	private final ListDataListener pageListener = new ListDataListener() {
+		@Override
+		public void intervalAdded(ListDataEvent e) {
+			// the list does not grow
+		}
+
+		@Override
+		public void intervalRemoved(ListDataEvent e) {
+			// the list does not shrink
+		}
+
+		@Override
+		public void contentsChanged(ListDataEvent e) {
+			if ((TagPhotos.this.pendingIndex >= e.getIndex0()) && (TagPhotos.this.pendingIndex <= e.getIndex1())
+					&& (TagPhotos.this.pendingIndex == TagPhotos.this.curIndex)) {
+				showPhoto(TagPhotos.this.pendingIndex);
+			}
+		}
+	};
 	private String curTags;
 	private String action;
 	private String year;
@@ -98,6 +142,9 @@ public class TagPhotos {
 	// Swing components
 	private JFrame frmTagAPhoto;
 	private ImagePanel pnlImage;
+	private ThumbnailGrid grid;
+	private JPanel pnlCenter;
+	private JToggleButton btnGrid;
 	private JTextField txtYear;
 	private JTextField txtTags;
 	private JButton btnPrev;
@@ -106,13 +153,21 @@ public class TagPhotos {
 	private JButton btnImport;
 	private JPanel pnlSouth;
 	private JComboBox<String> cmbYear;
+	private JTextField txtQuery;
 	private JLabel lblChosenFolder;
 	private JLabel lblFile;
 	private ProgressMonitor pgmon;
 	private ImportTask task;
+	private LoadTask loadTask;
+	private DiscoverTask discoverTask;
+	private FolderDiscovery discovery;
+	private FolderScanner scanner;
 
 	/**
-	 * Launch the application.
+	 * Launch the application, or with argument {@code server} only the album
+	 * server, or with argument {@code import} import folders without a window
+	 * (see {@link ImportCommand}), or with argument {@code watch} import the
+	 * photos put in the inbox folders (see {@link WatchDaemon}).
 	 */
 	public static void main(String[] args) {
 		try {
@@ -124,11 +179,56 @@ public class TagPhotos {
 			log.error("'tagphotos.properties' file could not be read: " + e.getMessage());
 			System.exit(1);
 		}
+		if ((args.length > 0) && args[0].equals("jobs")) {
+			// the state of the import jobs, newest first
+			List<ImportJournal> jobs = ImportJournal.jobs(conf);
+			Collections.reverse(jobs);
+			for (ImportJournal job : jobs) {
+				System.out.println(job);
+			}
+			return;
+		}
 		// Open the database
 		PojoCodecProvider provider = PojoCodecProvider.builder().register("nl.das.tagphotos.model").build();
 		CodecRegistry pojoCodecRegistry = fromRegistries(MongoClientSettings.getDefaultCodecRegistry(), fromProviders(provider));
 		ServerAddress sa = new ServerAddress("localhost", 27017);
 		mongoClient = new MongoClient(sa, MongoClientOptions.builder().codecRegistry(pojoCodecRegistry).build());
+		if ((args.length > 0) && args[0].equals("server")) {
+			// headless: only serve the album over HTTP
+			AlbumServer.run(conf, mongoClient.getDatabase("album"));
+			return;
+		}
+		if ((args.length > 0) && args[0].equals("watch")) {
+			// headless: import the photos put in the inbox folders
+			WatchDaemon daemon = new WatchDaemon(conf, mongoClient.getDatabase("album"));
+			Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "watch-stop"));
+			daemon.run();
+			mongoClient.close();
+			return;
+		}
+		if ((args.length > 0) && args[0].equals("reconcile")) {
+			// headless: compare the database with the photo folders
+			boolean fix = (args.length > 1) && args[1].equals("--fix");
+			Map<String, Integer> differences = new Reconciler(conf, mongoClient.getDatabase("album"))
+					.reconcile(fix, System.out::println);
+			mongoClient.close();
+			try {
+				System.err.println(Utils.writer().writeValueAsString(differences));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			// an incomplete photo is only reported, also with --fix
+			int left = fix ? differences.get("incomplete")
+					: differences.values().stream().mapToInt(Integer::intValue).sum();
+			System.exit(left == 0 ? 0 : 1);
+		}
+		if ((args.length > 0) && args[0].equals("import")) {
+			// headless: import folders and exit
+			int code = new ImportCommand(conf, mongoClient.getDatabase("album"), System.out, System.err)
+					.run(Arrays.copyOfRange(args, 1, args.length));
+			mongoClient.close();
+			System.exit(code);
+		}
 
 		EventQueue.invokeLater(() -> {
 			try {
@@ -145,6 +245,17 @@ public class TagPhotos {
 	 */
 	public TagPhotos() {
 		database = mongoClient.getDatabase("album");
+		this.tagStore = new TagStore(database);
+		this.queryEngine = new TagQueryEngine(database, conf);
+		this.photoLoader = new PhotoLoader(database);
+		this.discovery = new FolderDiscovery(conf);
+		// decode at screen resolution: originals are subsampled while they are read
+		Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+		this.imageCache = new ImageCache(Long.parseLong(conf.getProperty("viewer.cache.mb", "256")) * 1024L * 1024L,
+				Integer.parseInt(conf.getProperty("viewer.prefetch.threads", "2")),
+				path -> RenditionEngine.decode(Paths.get(path), screen.width, screen.height));
+		this.prefetchNext = Integer.parseInt(conf.getProperty("viewer.prefetch.next", "3"));
+		this.prefetchPrevious = Integer.parseInt(conf.getProperty("viewer.prefetch.previous", "1"));
 		initialize();
 	}
 
@@ -165,6 +276,7 @@ public class TagPhotos {
 		pnlNorth.setLayout(new GridLayout(0, 1, 0, 0));
 
 		this.pnlImage = new ImagePanel();
+		this.grid = new ThumbnailGrid(conf);
 
 		JTabbedPane tabbedPane = new JTabbedPane(JTabbedPane.TOP);
 		pnlNorth.add(tabbedPane);
@@ -195,6 +307,13 @@ public class TagPhotos {
 		this.btnImport.setEnabled(false);
 		this.btnImport.addActionListener(e -> {
 			if (this.photoFiles != null) {
+				List<String> problems = this.scanner.getProblems();
+				if (!problems.isEmpty() && (JOptionPane.showConfirmDialog(this.frmTagAPhoto,
+						problems.size() + " photos cannot be imported as they are:\n" + listProblems(problems)
+								+ "\nImport the other photos?",
+						"Confirm Dialog", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION)) {
+					return;
+				}
 				this.pgmon = new ProgressMonitor(this.frmTagAPhoto, "Importing ....",
 						"Starting...", 0, this.photoFiles.size());
 				this.pgmon.setMillisToDecideToPopup(0);
@@ -214,52 +333,16 @@ public class TagPhotos {
 			int option = fileChooser.showOpenDialog(TagPhotos.this.frmTagAPhoto);
 			if (option == JFileChooser.APPROVE_OPTION) {
 				this.action = "import";
+				this.btnGrid.setSelected(false);
+				showGrid(false);
 				TagPhotos.this.selectedFolder = fileChooser.getSelectedFile();
-				this.lblChosenFolder.setText("Folder selected: " + this.selectedFolder.getAbsolutePath());
-				try {
-					this.photoFiles = Files.list(Paths.get(this.selectedFolder.getAbsolutePath()))
-							.filter(p -> (p.toString().endsWith(".jpg") || p.toString().endsWith(".JPG")))
-							.collect(Collectors.toList());
-					if ((this.photoFiles != null) && (this.photoFiles.size() > 0)) {
-						this.pnlImage.setImage(this.photoFiles.get(0).toString());
-						this.pnlImage.repaint();
-						this.curIndex = 0;
-						if (this.photoFiles.size() == 1) {
-							this.btnPrev.setVisible(false);
-							this.btnNext.setVisible(false);
-							this.btnSave.setVisible(true);
-						} else {
-							this.btnPrev.setVisible(true);
-							this.btnNext.setVisible(true);
-							this.btnPrev.setEnabled(false);
-							this.btnNext.setEnabled(true);
-							this.btnSave.setVisible(false);
-						}
-						this.btnImport.setEnabled(true);
-						this.lblFile.setText(this.photoFiles.get(this.curIndex).getFileName().toString());
-						this.curTags = getTags((IPTC) Metadata.readMetadata(this.photoFiles.get(0).toString()).get(MetadataType.IPTC));
-						this.txtYear.setText(this.curTags.substring(0, this.curTags.indexOf(";")));
-						this.txtTags.setText(this.curTags.substring(this.curTags.indexOf(";") + 1));
-
-					} else {
-						JOptionPane.showMessageDialog(this.frmTagAPhoto, "No photos found in this folder.",
-								"Dialog", JOptionPane.ERROR_MESSAGE);
-						this.pnlImage.clearImage();
-						this.pnlImage.repaint();
-						this.curIndex = 0;
-						this.btnPrev.setEnabled(false);
-						this.btnNext.setEnabled(false);
-						this.btnSave.setVisible(false);
-						this.btnImport.setEnabled(false);
-						this.lblFile.setText("");
-						this.curTags = null;
-						this.txtYear.setText("");
-						this.txtTags.setText("");
-					}
-				} catch (IOException e) {
-					JOptionPane.showMessageDialog(this.frmTagAPhoto, Utils.stacktraceAsString(e),
-							"Error Dialog", JOptionPane.ERROR_MESSAGE);
+				this.lblChosenFolder.setText("Searching photos in " + this.selectedFolder.getAbsolutePath() + " ...");
+				this.btnImport.setEnabled(false);
+				if (this.discoverTask != null) {
+					this.discoverTask.cancel(true);
 				}
+				this.discoverTask = new DiscoverTask(this.selectedFolder.toPath());
+				this.discoverTask.execute();
 			} else {
 				if (this.selectedFolder == null) {
 					this.lblChosenFolder.setText("No folder selected");
@@ -285,29 +368,36 @@ public class TagPhotos {
 		}
 		this.cmbYear.addActionListener(event -> {
 			this.year = (String) this.cmbYear.getSelectedItem();
-			this.photos = getAllPhotosOfYear(this.year);
-			this.action = "manage";
-			this.pnlImage.setImage(this.photosPath + this.year + "/photos/" + this.photos.get(0).getId() + ".jpg");
-			this.pnlImage.repaint();
-			if (this.photos.size() == 1) {
-				this.btnPrev.setVisible(false);
-				this.btnNext.setVisible(false);
-				this.btnSave.setVisible(true);
-			} else {
-				this.btnPrev.setVisible(true);
-				this.btnNext.setVisible(true);
-				this.btnPrev.setEnabled(false);
-				this.btnNext.setEnabled(true);
-				this.btnSave.setVisible(false);
-			}
-			this.curTags = this.photos.get(0).getTags();
-			this.txtYear.setText(this.curTags.substring(0, this.curTags.indexOf(";")));
-			this.txtTags.setText(this.curTags.substring(this.curTags.indexOf(";") + 1));
-			this.curIndex = 0;
-			log.debug("Show photo '" + this.photosPath + this.year + "/photos/" + this.photos.get(0).getId() + ".jpg'");
+			loadPhotos(() -> this.tagStore.bitmap(this.year));
 		});
 		pnlTabManage.add(this.cmbYear);
 
+		JLabel lblQuery = new JLabel("or search");
+		pnlTabManage.add(lblQuery);
+
+		this.txtQuery = new JTextField();
+		this.txtQuery.setColumns(20);
+		this.txtQuery.setToolTipText("e.g. 2019 AND beach AND NOT work, (anna OR piet) AND 2020");
+		this.txtQuery.addActionListener(event -> {
+			String query = this.txtQuery.getText().trim();
+			if (query.length() == 0) {
+				return;
+			}
+			try {
+				TagQuery q = TagQuery.parse(query);
+				loadPhotos(() -> this.queryEngine.execute(q).getOrdinals());
+			} catch (IllegalArgumentException e) {
+				JOptionPane.showMessageDialog(this.frmTagAPhoto, e.getMessage(), "Error Dialog",
+						JOptionPane.ERROR_MESSAGE);
+			}
+		});
+		pnlTabManage.add(this.txtQuery);
+
+		this.btnGrid = new JToggleButton("Grid");
+		this.btnGrid.setToolTipText("Show the thumbnails of all photos; double-click one to view it");
+		this.btnGrid.addActionListener(event -> showGrid(this.btnGrid.isSelected()));
+		pnlTabManage.add(this.btnGrid);
+
 		JPanel pnlNextPrev = new JPanel();
 		pnlNextPrev.setBorder(new EmptyBorder(5, 0, 0, 0));
 		pnlNorth.add(pnlNextPrev);
@@ -330,8 +420,9 @@ public class TagPhotos {
 					if (this.action.equalsIgnoreCase("import")) {
 						changeKeywords(this.photoFiles.get(this.curIndex).toString(), newTags);
 					} else {
-						this.photos.get(this.curIndex).setTags(newTags);
-						update(this.photos.get(this.curIndex));
+						Photo photo = this.photos.getElementAt(this.curIndex);
+						photo.setTags(newTags);
+						update(photo);
 					}
 				}
 				this.curIndex--;
@@ -339,22 +430,15 @@ public class TagPhotos {
 					this.lblFile.setText(this.photoFiles.get(this.curIndex).getFileName().toString());
 					this.pnlImage.setImage(this.photoFiles.get(this.curIndex).toString());
 					this.pnlImage.repaint();
+					prefetch();
 					this.btnPrev.setEnabled((this.curIndex - 1) >= 0);
 					this.btnNext.setEnabled((this.curIndex + 1) < this.photoFiles.size());
-					this.curTags = getTags((IPTC) Metadata.readMetadata(this.photoFiles.get(this.curIndex).toString()).get(MetadataType.IPTC));
+					this.curTags = this.scanner.get(this.photoFiles.get(this.curIndex)).getTags();
 					this.txtYear.setText(this.curTags.substring(0, this.curTags.indexOf(";")));
 					this.txtTags.setText(this.curTags.substring(this.curTags.indexOf(";") + 1));
 					log.debug("Show photo '" + this.photoFiles.get(this.curIndex).toString() + "'");
 				} else {
-					this.lblFile.setText(this.photos.get(this.curIndex).getOrigFilename());
-					this.pnlImage.setImage(this.photosPath + this.year + "/photos/" + this.photos.get(this.curIndex).getId() + ".jpg");
-					this.pnlImage.repaint();
-					this.btnPrev.setEnabled((this.curIndex - 1) >= 0);
-					this.btnNext.setEnabled((this.curIndex + 1) < this.photos.size());
-					this.curTags = this.photos.get(this.curIndex).getTags();
-					this.txtYear.setText(this.curTags.substring(0, this.curTags.indexOf(";")));
-					this.txtTags.setText(this.curTags.substring(this.curTags.indexOf(";") + 1));
-					log.debug("Show photo '" + this.photosPath + this.year + "/photos/" + this.photos.get(this.curIndex).getId() + ".jpg'");
+					showPhoto(this.curIndex);
 				}
 			} catch (IOException e) {
 				JOptionPane.showMessageDialog(this.frmTagAPhoto, Utils.stacktraceAsString(e),
@@ -377,8 +461,9 @@ public class TagPhotos {
 					if (this.action.equalsIgnoreCase("import")) {
 						changeKeywords(this.photoFiles.get(this.curIndex).toString(), newTags);
 					} else {
-						this.photos.get(this.curIndex).setTags(newTags);
-						update(this.photos.get(this.curIndex));
+						Photo photo = this.photos.getElementAt(this.curIndex);
+						photo.setTags(newTags);
+						update(photo);
 					}
 				}
 				this.curIndex++;
@@ -386,9 +471,10 @@ public class TagPhotos {
 					this.lblFile.setText(this.photoFiles.get(this.curIndex).getFileName().toString());
 					this.pnlImage.setImage(this.photoFiles.get(this.curIndex).toString());
 					this.pnlImage.repaint();
+					prefetch();
 					this.btnPrev.setEnabled((this.curIndex - 1) >= 0);
 					this.btnNext.setEnabled((this.curIndex + 1) < this.photoFiles.size());
-					this.curTags = getTags((IPTC) Metadata.readMetadata(this.photoFiles.get(this.curIndex).toString()).get(MetadataType.IPTC));
+					this.curTags = this.scanner.get(this.photoFiles.get(this.curIndex)).getTags();
 					if ((this.curTags != null) && (this.curTags.length() > 0)) {
 						this.txtYear.setText(this.curTags.substring(0, this.curTags.indexOf(";")));
 						this.txtTags.setText(this.curTags.substring(this.curTags.indexOf(";") + 1));
@@ -397,15 +483,7 @@ public class TagPhotos {
 						this.txtTags.setText("");
 					}
 				} else {
-					this.lblFile.setText(this.photos.get(this.curIndex).getOrigFilename());
-					this.pnlImage.setImage(this.photosPath + this.year + "/photos/" + this.photos.get(this.curIndex).getId() + ".jpg");
-					this.pnlImage.repaint();
-					this.btnPrev.setEnabled((this.curIndex - 1) >= 0);
-					this.btnNext.setEnabled((this.curIndex + 1) < this.photos.size());
-					this.curTags = this.photos.get(this.curIndex).getTags();
-					this.txtYear.setText(this.curTags.substring(0, this.curTags.indexOf(";")));
-					this.txtTags.setText(this.curTags.substring(this.curTags.indexOf(";") + 1));
-					log.debug("Show photo '" + this.photosPath + this.year + "/photos/" + this.photos.get(this.curIndex).getId() + ".jpg'");
+					showPhoto(this.curIndex);
 				}
 			} catch (IOException e) {
 				JOptionPane.showMessageDialog(this.frmTagAPhoto, Utils.stacktraceAsString(e),
@@ -425,8 +503,9 @@ public class TagPhotos {
 				JOptionPane.showMessageDialog(this.frmTagAPhoto,
 						"Tags: '" + this.curTags + "' changed in '" + newTags + "'",
 						"Information Dialog", JOptionPane.INFORMATION_MESSAGE);
-				this.photos.get(this.curIndex).setTags(newTags);
-				update(this.photos.get(this.curIndex));
+				Photo photo = this.photos.getElementAt(this.curIndex);
+				photo.setTags(newTags);
+				update(photo);
 				this.curTags = newTags;
 			}
 		});
@@ -453,7 +532,24 @@ public class TagPhotos {
 			this.lblFile.setText("");
 		});
 
-		this.frmTagAPhoto.getContentPane().add(this.pnlImage, BorderLayout.CENTER);
+		this.pnlCenter = new JPanel(new CardLayout());
+		this.pnlCenter.add(this.pnlImage, "photo");
+		JScrollPane scrGrid = new JScrollPane(this.grid);
+		scrGrid.getVerticalScrollBar().setUnitIncrement(ImageImporter.THUMB_HEIGHT / 3);
+		scrGrid.getViewport().addChangeListener(event -> this.grid.visibleChanged());
+		this.grid.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				int index = TagPhotos.this.grid.locationToIndex(e.getPoint());
+				if ((e.getClickCount() == 2) && (index >= 0)) {
+					TagPhotos.this.btnGrid.setSelected(false);
+					showGrid(false);
+					showPhoto(index);
+				}
+			}
+		});
+		this.pnlCenter.add(scrGrid, "grid");
+		this.frmTagAPhoto.getContentPane().add(this.pnlCenter, BorderLayout.CENTER);
 
 		this.pnlSouth = new JPanel();
 		this.pnlSouth.setBorder(new EmptyBorder(10, 0, 0, 0));
@@ -481,42 +577,135 @@ public class TagPhotos {
 		@Override
 		public void run() {
 			ImageImporter imp = new ImageImporter(conf, database);
-			for (int i = 0; i < TagPhotos.this.photoFiles.size(); i++) {
-				final int progress = i;
-				imp.importImage(TagPhotos.this.photoFiles.get(progress).toString());
+			ImportPipeline pipeline = new ImportPipeline(conf, imp);
+			ImportJournal journal = ImportJournal.open(conf,
+					Collections.singletonList(TagPhotos.this.selectedFolder.toPath()));
+			pipeline.setJournal(journal);
+			ImportReport report;
+			try {
+				report = pipeline.run(TagPhotos.this.photoFiles, item -> {
+					if (TagPhotos.this.pgmon.isCanceled()) {
+						pipeline.cancel();
+					}
+					final int progress = item.getIndex();
+					SwingUtilities.invokeLater(() -> {
+						TagPhotos.this.pgmon.setProgress(progress + 1);
+						TagPhotos.this.pgmon.setNote(item.getPath().getFileName().toString());
+					});
+				});
+			} catch (RuntimeException e) {
+				journal.close();
 				SwingUtilities.invokeLater(() -> {
-					TagPhotos.this.pgmon.setProgress(progress + 1);
-					TagPhotos.this.pgmon.setNote(TagPhotos.this.photoFiles.get(progress).getFileName().toString());
+					TagPhotos.this.pgmon.close();
+					JOptionPane.showMessageDialog(TagPhotos.this.frmTagAPhoto, "Import stopped: " + e.getMessage(),
+							"Error Dialog", JOptionPane.ERROR_MESSAGE);
 				});
+				return;
+			}
+			if (TagPhotos.this.pgmon.isCanceled()) {
+				// importing the folder again resumes the job
+				journal.close();
+			} else {
+				journal.finish();
 			}
+			SwingUtilities.invokeLater(() -> {
+				TagPhotos.this.pgmon.close();
+				JOptionPane.showMessageDialog(TagPhotos.this.frmTagAPhoto, report.toString(),
+						"Import finished", report.getFailed() == 0 ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+			});
 		}
 	}
 
-	public void close() {
-		mongoClient.close();
-	}
+	/**
+	 * Finds the photos in the selected folder and its subfolders in the
+	 * background.
+	 */
+	private class DiscoverTask extends SwingWorker<List<Path>, Void> {
+		private final Path folder;
 
-	private boolean tagsUpdated() {
-		return !(this.txtYear.getText() + ";" + this.txtTags.getText()).equalsIgnoreCase(this.curTags);
+		DiscoverTask(Path folder) {
+			this.folder = folder;
+		}
+
+		@Override
+		protected List<Path> doInBackground() {
+			return TagPhotos.this.discovery.find(Collections.singletonList(this.folder));
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				return;
+			}
+			try {
+				TagPhotos.this.photoFiles = get();
+				TagPhotos.this.lblChosenFolder.setText("Folder selected: " + this.folder);
+				showFolder();
+			} catch (InterruptedException | ExecutionException e) {
+				JOptionPane.showMessageDialog(TagPhotos.this.frmTagAPhoto, Utils.stacktraceAsString(e),
+						"Error Dialog", JOptionPane.ERROR_MESSAGE);
+			}
+		}
 	}
 
 	/**
-	 * Support function: get the s from the given Metadata object.
-	 * 
-	 * @param iptc the IPTC block
-	 * @return the value as a string or an empty string if not found
+	 * Finds the photos to manage and loads the first page in the background.
 	 */
-	private String getTags(IPTC iptc) {
-		String tags = "";
-		Map<IPTCTag, List<IPTCDataSet>> dataSets = iptc.getDataSets();
-		for (IPTCTag ds : dataSets.keySet()) {
-			if (ds == IPTCApplicationTag.KEY_WORDS) {
-				for (IPTCDataSet d : dataSets.get(ds)) {
-					tags += d.getDataAsString().toLowerCase() + ";";
+	private class LoadTask extends SwingWorker<PhotoListModel, Void> {
+		private final Supplier<RoaringBitmap> source;
+
+		LoadTask(Supplier<RoaringBitmap> source) {
+			this.source = source;
+		}
+
+		@Override
+		protected PhotoListModel doInBackground() {
+			PhotoListModel model = new PhotoListModel(TagPhotos.this.photoLoader, this.source.get(), conf);
+			if (model.getSize() > 0) {
+				model.get(0);
+			}
+			return model;
+		}
+
+		@Override
+		protected void done() {
+			try {
+				PhotoListModel model = get();
+				if (model.getSize() == 0) {
+					model.dispose();
+					JOptionPane.showMessageDialog(TagPhotos.this.frmTagAPhoto, "No photos found.",
+							"Information Dialog", JOptionPane.INFORMATION_MESSAGE);
+					return;
 				}
+				if (TagPhotos.this.photos != null) {
+					TagPhotos.this.photos.removeListDataListener(TagPhotos.this.pageListener);
+					TagPhotos.this.photos.dispose();
+				}
+				TagPhotos.this.photos = model;
+				model.addListDataListener(TagPhotos.this.pageListener);
+				TagPhotos.this.grid.setPhotos(model);
+				showPhoto(0);
+			} catch (CancellationException e) {
+				// a new year or search was chosen
+			} catch (InterruptedException | ExecutionException e) {
+				JOptionPane.showMessageDialog(TagPhotos.this.frmTagAPhoto, Utils.stacktraceAsString(e),
+						"Error Dialog", JOptionPane.ERROR_MESSAGE);
 			}
 		}
-		return tags.isEmpty() ? "" : tags.substring(0, tags.length() - 1);
+	}
+
+	public void close() {
+		this.imageCache.shutdown();
+		this.grid.dispose();
+		this.discovery.shutdown();
+		MetadataCache.get(conf).close();
+		mongoClient.close();
+	}
+
+	private boolean tagsUpdated() {
+		// no tags are shown while the photo is loading
+		return (this.curTags != null)
+				&& !(this.txtYear.getText() + ";" + this.txtTags.getText()).equalsIgnoreCase(this.curTags);
 	}
 
 	/**
@@ -555,38 +744,222 @@ public class TagPhotos {
 		Metadata.insertIPTC(new FileInputStream(jpegFile), new FileOutputStream(dst1), dss, false);
 		Files.move(Paths.get(dst1), Paths.get(jpegFile), StandardCopyOption.REPLACE_EXISTING);
 		Files.deleteIfExists(Paths.get(dst1));
+		MetadataCache.get(conf).update(Paths.get(jpegFile));
+		if (this.scanner != null) {
+			this.scanner.rescan(Paths.get(jpegFile));
+			if (this.scanner.getScanned() == this.photoFiles.size()) {
+				showScanResult();
+			}
+		}
 	}
 
 	/**
-	 * Fill the combobox with all years that have photos.
+	 * Show the number of photos in the selected folder that have a problem with
+	 * their metadata; the problems are shown in the tooltip.
 	 */
-	private void fillCmbYear() {
-		MongoCollection<TagIndex> colTags = database.getCollection("tags", TagIndex.class);
-		MongoCursor<TagIndex> cursor = colTags.find(regex("tag", "[0-9]{4}")).cursor();
-		while (cursor.hasNext()) {
-			this.cmbYear.addItem(cursor.next().getTag());
+	private void showScanResult() {
+		List<String> problems = this.scanner.getProblems();
+		String folder = "Folder selected: " + this.selectedFolder.getAbsolutePath();
+		if (problems.isEmpty()) {
+			this.lblChosenFolder.setText(folder);
+			this.lblChosenFolder.setToolTipText(null);
+		} else {
+			this.lblChosenFolder.setText(folder + " (" + problems.size() + " photos with problems)");
+			this.lblChosenFolder.setToolTipText("<html>" + listProblems(problems).replace("\n", "<br>") + "</html>");
 		}
-		cursor.close();
 	}
 
 	/**
-	 * Collect all photo of a give year from database.
-	 * 
-	 * @param year
-	 * @return
+	 * @return the first problems, one per line
 	 */
-	private List<Photo> getAllPhotosOfYear(String year) {
-		List<Photo> photos = new ArrayList<>();
-		MongoCollection<TagIndex> colTags = database.getCollection("tags", TagIndex.class);
-		MongoCollection<Photo> colPhotos = database.getCollection("photos", Photo.class);
-		MongoCursor<TagIndex> cursor = colTags.find(eq("tag", year)).cursor();
-		if (cursor.hasNext()) {
-			for (String id : cursor.next().getIds()) {
-				photos.add(colPhotos.find(eq("_id", id)).first());
+	private static String listProblems(List<String> problems) {
+		StringBuilder sb = new StringBuilder();
+		for (String problem : problems.subList(0, Math.min(20, problems.size()))) {
+			sb.append(problem).append('\n');
+		}
+		if (problems.size() > 20) {
+			sb.append("... and ").append(problems.size() - 20).append(" more\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Start loading the photos to manage in the background. The first photo is
+	 * shown as soon as its page is loaded.
+	 *
+	 * @param source gives the ordinals of the photos
+	 */
+	private void loadPhotos(Supplier<RoaringBitmap> source) {
+		if (this.loadTask != null) {
+			this.loadTask.cancel(false);
+		}
+		this.loadTask = new LoadTask(source);
+		this.loadTask.execute();
+	}
+
+	/**
+	 * Show the first photo of the selected folder and start scanning the
+	 * metadata of all its photos.
+	 */
+	private void showFolder() {
+		if (this.scanner != null) {
+			this.scanner.cancel();
+		}
+		this.scanner = new FolderScanner(this.photoFiles, conf);
+		if ((this.photoFiles != null) && (this.photoFiles.size() > 0)) {
+			FolderScanner started = this.scanner;
+			started.start(s -> SwingUtilities.invokeLater(() -> {
+				if (this.scanner == started) {
+					showScanResult();
+				}
+			}));
+			this.curIndex = 0;
+			this.pnlImage.setImage(this.photoFiles.get(0).toString());
+			this.pnlImage.repaint();
+			prefetch();
+			if (this.photoFiles.size() == 1) {
+				this.btnPrev.setVisible(false);
+				this.btnNext.setVisible(false);
+				this.btnSave.setVisible(true);
+			} else {
+				this.btnPrev.setVisible(true);
+				this.btnNext.setVisible(true);
+				this.btnPrev.setEnabled(false);
+				this.btnNext.setEnabled(true);
+				this.btnSave.setVisible(false);
+			}
+			this.btnImport.setEnabled(true);
+			this.lblFile.setText(this.photoFiles.get(this.curIndex).getFileName().toString());
+			this.curTags = this.scanner.get(this.photoFiles.get(0)).getTags();
+			this.txtYear.setText(this.curTags.substring(0, this.curTags.indexOf(";")));
+			this.txtTags.setText(this.curTags.substring(this.curTags.indexOf(";") + 1));
+
+		} else {
+			JOptionPane.showMessageDialog(this.frmTagAPhoto, "No photos found in this folder.",
+					"Dialog", JOptionPane.ERROR_MESSAGE);
+			this.pnlImage.clearImage();
+			this.pnlImage.repaint();
+			this.curIndex = 0;
+			this.btnPrev.setEnabled(false);
+			this.btnNext.setEnabled(false);
+			this.btnSave.setVisible(false);
+			this.btnImport.setEnabled(false);
+			this.lblFile.setText("");
+			this.curTags = null;
+			this.txtYear.setText("");
+			this.txtTags.setText("");
+		}
+	}
+
+	/**
+	 * Show one of the photos to manage.
+	 *
+	 * @param index the position of the photo
+	 */
+	private void showPhoto(int index) {
+		this.action = "manage";
+		this.curIndex = index;
+		this.photos.setCurrent(index);
+		Photo photo = this.photos.getElementAt(index);
+		if (this.photos.getSize() == 1) {
+			this.btnPrev.setVisible(false);
+			this.btnNext.setVisible(false);
+			this.btnSave.setVisible(true);
+		} else {
+			this.btnPrev.setVisible(true);
+			this.btnNext.setVisible(true);
+			this.btnPrev.setEnabled(index > 0);
+			this.btnNext.setEnabled((index + 1) < this.photos.getSize());
+			this.btnSave.setVisible(false);
+		}
+		if (photo == null) {
+			// the page of the photo is loaded in the background, see pageListener
+			this.pendingIndex = index;
+			this.lblFile.setText("Loading ...");
+			this.pnlImage.clearImage();
+			this.pnlImage.repaint();
+			this.curTags = null;
+			this.txtYear.setText("");
+			this.txtTags.setText("");
+			return;
+		}
+		this.pendingIndex = -1;
+		this.lblFile.setText(photo.getOrigFilename());
+		this.pnlImage.setImage(photoFile(photo));
+		this.pnlImage.repaint();
+		this.curTags = photo.getTags();
+		this.txtYear.setText(this.curTags.substring(0, this.curTags.indexOf(";")));
+		this.txtTags.setText(this.curTags.substring(this.curTags.indexOf(";") + 1));
+		prefetch();
+		log.debug("Show photo '" + photoFile(photo) + "'");
+	}
+
+	/**
+	 * Switch between the photo and the thumbnails of all photos.
+	 *
+	 * @param grid true to show the thumbnails
+	 */
+	private void showGrid(boolean grid) {
+		if (grid && (this.photos != null) && "manage".equalsIgnoreCase(this.action)) {
+			this.grid.setSelectedIndex(this.curIndex);
+			this.grid.ensureIndexIsVisible(this.curIndex);
+			((CardLayout) this.pnlCenter.getLayout()).show(this.pnlCenter, "grid");
+		} else {
+			this.btnGrid.setSelected(false);
+			((CardLayout) this.pnlCenter.getLayout()).show(this.pnlCenter, "photo");
+		}
+	}
+
+	/**
+	 * Decode the photos next to the current one ahead, the next ones first.
+	 */
+	private void prefetch() {
+		List<String> paths = new ArrayList<>();
+		for (int i = 1; i <= this.prefetchNext; i++) {
+			addPath(paths, this.curIndex + i);
+		}
+		for (int i = 1; i <= this.prefetchPrevious; i++) {
+			addPath(paths, this.curIndex - i);
+		}
+		this.imageCache.prefetch(paths);
+		log.debug("Image cache hits: " + this.imageCache.getHits() + ", misses: " + this.imageCache.getMisses());
+	}
+
+	private void addPath(List<String> paths, int index) {
+		if (index < 0) {
+			return;
+		}
+		if (this.action.equalsIgnoreCase("import")) {
+			if (index < this.photoFiles.size()) {
+				paths.add(this.photoFiles.get(index).toString());
+			}
+		} else if (index < this.photos.getSize()) {
+			// do not wait for a page that is not loaded yet
+			Photo photo = this.photos.getElementAt(index);
+			if (photo != null) {
+				paths.add(photoFile(photo));
 			}
 		}
+	}
+
+	/**
+	 * @param photo the photo
+	 * @return the file with the web rendition of the photo
+	 */
+	private String photoFile(Photo photo) {
+		return photo.getPath() + "/photos/" + photo.getId() + ".jpg";
+	}
+
+	/**
+	 * Fill the combobox with all years that have photos.
+	 */
+	private void fillCmbYear() {
+		MongoCollection<TagIndex> colTags = database.getCollection("tags", TagIndex.class);
+		MongoCursor<TagIndex> cursor = colTags.find(regex("tag", "[0-9]{4}")).cursor();
+		while (cursor.hasNext()) {
+			this.cmbYear.addItem(cursor.next().getTag());
+		}
 		cursor.close();
-		return photos;
 	}
 
 	/**
@@ -597,53 +970,30 @@ public class TagPhotos {
 	private void update(Photo photo) {
 		log.debug("[update()] Photo " + photo.getId());
 		MongoCollection<Photo> pcol = database.getCollection("photos", Photo.class);
-		String oldtags = pcol.find(eq("_id", photo.getId())).first().getTags();
+		// Update photo and get the tags it had before in one atomic operation
+		Photo old = pcol.findOneAndUpdate(eq("_id", photo.getId()), set("tags", photo.getTags()));
+		if (old == null) {
+			log.warn("[update()] Photo " + photo.getId() + " no longer exists");
+			return;
+		}
+		String oldtags = old.getTags();
 		log.debug("[update()] Old tags: '" + oldtags + "', new tags: '" + photo.getTags());
-		// Update photo
-		pcol.findOneAndReplace(eq("_id", photo.getId()), photo);
-		// Also update the TagIndex
-		MongoCollection<TagIndex> tcol = database.getCollection("tags", TagIndex.class);
-		for (String tag : oldtags.split(";")) {
-			// is this tag not in the new tags? Remove the id from the TagIndex record
-			if (!photo.getTags().contains(tag)) {
-				MongoCursor<TagIndex> ticur = tcol.find(eq("tag", tag)).cursor();
-				if (ticur.hasNext()) {
-					TagIndex ti = ticur.next();
-					Set<String> ids = ti.getIds();
-					ids.remove(photo.getId());
-					// if there are no ids anymore, remove the TagIndexrecord
-					if (ids.isEmpty()) {
-						tcol.deleteOne(eq("tag", tag));
-					} else {
-						// update the existing TagIndex record
-						tcol.updateOne(eq("tag", tag), set("ids", ids));
-					}
-				}
-				ticur.close();
-			}
-		}
-		for (String tag : photo.getTags().split(";")) {
-			// is this tag not in the old tags? Add the id to the TagIndex record
-			if (!oldtags.contains(tag)) {
-				MongoCursor<TagIndex> ticur = tcol.find(eq("tag", tag)).cursor();
-				if (ticur.hasNext()) {
-					// Update TagIndexrecord and add id
-					TagIndex ti = ticur.next();
-					Set<String> ids = ti.getIds();
-					ids.add(photo.getId());
-					tcol.updateOne(eq("tag", tag), set("ids", ids));
-				} else {
-					// Create a new TagIndex record
-					TagIndex ti = new TagIndex();
-					ti.setTag(tag.toLowerCase());
-					Set<String> ids = new HashSet<>();
-					ids.add(photo.getId());
-					ti.setIds(ids);
-					tcol.insertOne(ti);
-				}
-				ticur.close();
+		// Also update the TagIndex, only for the tags that changed
+		Set<String> before = TagStore.split(oldtags);
+		Set<String> after = TagStore.split(photo.getTags());
+		Map<String, List<Photo>> removed = new HashMap<>();
+		for (String tag : before) {
+			if (!after.contains(tag)) {
+				removed.put(tag, Collections.singletonList(old));
+			}
+		}
+		Map<String, List<Photo>> added = new HashMap<>();
+		for (String tag : after) {
+			if (!before.contains(tag)) {
+				added.put(tag, Collections.singletonList(old));
 			}
 		}
+		this.tagStore.update(added, removed);
 	}
 
 	/**
@@ -653,29 +1003,69 @@ public class TagPhotos {
 
 		private static final long serialVersionUID = 1L;
 
-		private ImageIcon imageIcon;
+		private BufferedImage image;
+		private String path;
+		/** The image scaled to fit the panel, drawn as is */
+		private BufferedImage frame;
+		private BufferedImage frameSource;
+		private Dimension frameSize;
 
+		/**
+		 * Show an image. The image that is shown now stays until the new one is
+		 * decoded.
+		 *
+		 * @param path the image file
+		 */
 		public void setImage(String path) {
-			this.imageIcon = new ImageIcon(path);
+			this.path = path;
+			TagPhotos.this.imageCache.get(path, img -> {
+				if (path.equals(this.path)) {
+					this.image = img;
+					repaint();
+				}
+			});
 		}
 
 		public void clearImage() {
-			this.imageIcon = null;
+			this.path = null;
+			this.image = null;
+			this.frame = null;
+			this.frameSource = null;
 		}
 
 		@Override
 		public void paintComponent(Graphics g) {
-			if (this.imageIcon != null) {
-				double factor = getScaleFactorToFit(
-						new Dimension(this.imageIcon.getIconWidth(), this.imageIcon.getIconHeight()), getSize());
-				int scaledWidth = (int) (this.imageIcon.getIconWidth() * factor);
-				int scaledHeight = (int) (this.imageIcon.getIconHeight() * factor);
-				int posx = (getWidth() - scaledWidth) / 2; // Center horizontally
-				g.clearRect(0, 0, getWidth(), getHeight());
-				g.drawImage(this.imageIcon.getImage(), posx, 0, scaledWidth, scaledHeight, this);
-			} else {
-				g.clearRect(0, 0, getWidth(), getHeight());
+			g.clearRect(0, 0, getWidth(), getHeight());
+			BufferedImage scaled = getFrame();
+			if (scaled != null) {
+				int posx = (getWidth() - scaled.getWidth()) / 2; // Center horizontally
+				g.drawImage(scaled, posx, 0, this);
+			}
+		}
+
+		/**
+		 * Get the image scaled to the panel. It is only scaled again when the
+		 * image or the size of the panel has changed.
+		 */
+		private BufferedImage getFrame() {
+			if ((this.image == null) || (getWidth() <= 0) || (getHeight() <= 0)) {
+				return null;
+			}
+			if ((this.frame == null) || (this.frameSource != this.image) || !getSize().equals(this.frameSize)) {
+				double factor = getScaleFactorToFit(new Dimension(this.image.getWidth(), this.image.getHeight()),
+						getSize());
+				int scaledWidth = Math.max(1, (int) (this.image.getWidth() * factor));
+				int scaledHeight = Math.max(1, (int) (this.image.getHeight() * factor));
+				BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_RGB);
+				Graphics2D g2 = scaled.createGraphics();
+				g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g2.drawImage(this.image, 0, 0, scaledWidth, scaledHeight, null);
+				g2.dispose();
+				this.frame = scaled;
+				this.frameSource = this.image;
+				this.frameSize = getSize();
 			}
+			return this.frame;
 		}
 
 		private double getScaleFactor(int iMasterSize, int iTargetSize) {
@@ -0,0 +1,265 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A boolean query on tags, like <code>2019 AND beach AND NOT work</code> or
+ * <code>(anna OR piet) AND 2020</code>.
+ * <p>
+ * NOT binds stronger than AND, AND stronger than OR. Terms next to each other
+ * without an operator are combined with AND. The operators are not case
+ * sensitive; a tag with a space or a tag that is equal to an operator must be
+ * quoted, e.g. <code>"new york" AND "not"</code>. Tags are lowercase, like in
+ * the tag index.
+ */
+public abstract class TagQuery {
+
+	/**
+	 * Parse a query.
+	 *
+	 * @param query the query
+	 * @return the parsed query
+	 * @throws IllegalArgumentException if the query is not valid
+	 */
+	public static TagQuery parse(String query) {
+		return new Parser(query).parse();
+	}
+
+	/**
+	 * Collect the tags used in the query.
+	 *
+	 * @param tags the set to add the tags to
+	 */
+	abstract void collectTags(Set<String> tags);
+
+	/**
+	 * A single tag.
+	 */
+	static final class Tag extends TagQuery {
+		final String tag;
+
+		Tag(String tag) {
+			this.tag = tag;
+		}
+
+		@Override
+		void collectTags(Set<String> tags) {
+			tags.add(this.tag);
+		}
+
+		@Override
+		public String toString() {
+			return this.tag.matches("[^\\s()\"]+") && !Parser.isOperator(this.tag) ? this.tag : "\"" + this.tag + "\"";
+		}
+	}
+
+	/**
+	 * All terms must match.
+	 */
+	static final class And extends TagQuery {
+		final List<TagQuery> terms;
+
+		And(List<TagQuery> terms) {
+			this.terms = Collections.unmodifiableList(terms);
+		}
+
+		@Override
+		void collectTags(Set<String> tags) {
+			for (TagQuery t : this.terms) {
+				t.collectTags(tags);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return join(this.terms, " AND ");
+		}
+	}
+
+	/**
+	 * At least one of the terms must match.
+	 */
+	static final class Or extends TagQuery {
+		final List<TagQuery> terms;
+
+		Or(List<TagQuery> terms) {
+			this.terms = Collections.unmodifiableList(terms);
+		}
+
+		@Override
+		void collectTags(Set<String> tags) {
+			for (TagQuery t : this.terms) {
+				t.collectTags(tags);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return join(this.terms, " OR ");
+		}
+	}
+
+	/**
+	 * The term must not match.
+	 */
+	static final class Not extends TagQuery {
+		final TagQuery term;
+
+		Not(TagQuery term) {
+			this.term = term;
+		}
+
+		@Override
+		void collectTags(Set<String> tags) {
+			this.term.collectTags(tags);
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + this.term;
+		}
+	}
+
+	private static String join(List<TagQuery> terms, String op) {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < terms.size(); i++) {
+			if (i > 0) {
+				sb.append(op);
+			}
+			sb.append(terms.get(i));
+		}
+		return sb.append(")").toString();
+	}
+
+	/**
+	 * Recursive descent parser.
+	 */
+	private static class Parser {
+		private final String query;
+		private int pos;
+		/** the current token, null at the end of the query */
+		private String token;
+		private boolean quoted;
+
+		Parser(String query) {
+			this.query = query == null ? "" : query;
+			next();
+		}
+
+		static boolean isOperator(String word) {
+			return word.equalsIgnoreCase("AND") || word.equalsIgnoreCase("OR") || word.equalsIgnoreCase("NOT");
+		}
+
+		TagQuery parse() {
+			if (this.token == null) {
+				throw new IllegalArgumentException("Empty query");
+			}
+			TagQuery q = parseOr();
+			if (this.token != null) {
+				throw error("Unexpected '" + this.token + "'");
+			}
+			return q;
+		}
+
+		private TagQuery parseOr() {
+			List<TagQuery> terms = new ArrayList<>();
+			terms.add(parseAnd());
+			while (isKeyword("OR")) {
+				next();
+				terms.add(parseAnd());
+			}
+			return terms.size() == 1 ? terms.get(0) : new Or(terms);
+		}
+
+		private TagQuery parseAnd() {
+			List<TagQuery> terms = new ArrayList<>();
+			terms.add(parseNot());
+			while ((this.token != null) && !isKeyword("OR") && !(")".equals(this.token) && !this.quoted)) {
+				if (isKeyword("AND")) {
+					next();
+				}
+				terms.add(parseNot());
+			}
+			return terms.size() == 1 ? terms.get(0) : new And(terms);
+		}
+
+		private TagQuery parseNot() {
+			if (isKeyword("NOT")) {
+				next();
+				return new Not(parseNot());
+			}
+			return parseTerm();
+		}
+
+		private TagQuery parseTerm() {
+			if (this.token == null) {
+				throw error("Tag expected at the end of the query");
+			}
+			if (!this.quoted && "(".equals(this.token)) {
+				next();
+				TagQuery q = parseOr();
+				if (this.quoted || !")".equals(this.token)) {
+					throw error("')' expected");
+				}
+				next();
+				return q;
+			}
+			if (!this.quoted && (")".equals(this.token) || isOperator(this.token))) {
+				throw error("Tag expected instead of '" + this.token + "'");
+			}
+			TagQuery q = new Tag(this.token.toLowerCase());
+			next();
+			return q;
+		}
+
+		private boolean isKeyword(String keyword) {
+			return (this.token != null) && !this.quoted && this.token.equalsIgnoreCase(keyword);
+		}
+
+		private void next() {
+			while ((this.pos < this.query.length()) && Character.isWhitespace(this.query.charAt(this.pos))) {
+				this.pos++;
+			}
+			this.quoted = false;
+			if (this.pos >= this.query.length()) {
+				this.token = null;
+				return;
+			}
+			char c = this.query.charAt(this.pos);
+			if ((c == '(') || (c == ')')) {
+				this.token = String.valueOf(c);
+				this.pos++;
+			} else if (c == '"') {
+				int end = this.query.indexOf('"', this.pos + 1);
+				if (end < 0) {
+					throw error("Closing '\"' missing");
+				}
+				this.token = this.query.substring(this.pos + 1, end);
+				this.quoted = true;
+				this.pos = end + 1;
+			} else {
+				int start = this.pos;
+				while ((this.pos < this.query.length()) && !Character.isWhitespace(this.query.charAt(this.pos))
+						&& ("()\"".indexOf(this.query.charAt(this.pos)) < 0)) {
+					this.pos++;
+				}
+				this.token = this.query.substring(start, this.pos);
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + this.pos + " in query '" + this.query + "'");
+		}
+	}
+}
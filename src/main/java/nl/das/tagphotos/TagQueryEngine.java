@@ -0,0 +1,322 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executes a {@link TagQuery} on the bitmaps of the tags.
+ * <p>
+ * The headers of all tags in the query are read first with one query, so the
+ * number of photos of every tag is known before any bitmap is loaded. The
+ * terms of an AND are then evaluated smallest first and the evaluation stops
+ * as soon as the intermediate result is empty. When only a few photos are
+ * left and the next tag is large and not cached, those photos are checked in
+ * the photos collection instead of loading the bitmap of the tag.
+ */
+@Slf4j
+public class TagQueryEngine {
+
+	/** Up to this number of photos, a large tag is checked photo by photo */
+	static final int PROBE_LIMIT = 64;
+	/** A tag is large when it has this many times more photos than the result */
+	static final int PROBE_RATIO = 64;
+
+	private final MongoCollection<Document> tcol;
+	private final MongoCollection<Document> pcol;
+	private final Counters counters;
+	private final PostingListCache cache;
+	private RoaringBitmap universe;
+	private String universeKey;
+
+	/**
+	 * The ordinals of the photos that match a query.
+	 */
+	public class Result {
+		private final RoaringBitmap ordinals;
+
+		Result(RoaringBitmap ordinals) {
+			this.ordinals = ordinals;
+		}
+
+		/**
+		 * @return the number of photos that match
+		 */
+		public int size() {
+			return this.ordinals.getCardinality();
+		}
+
+		/**
+		 * @return the ordinals of the photos that match, do not modify
+		 */
+		public RoaringBitmap getOrdinals() {
+			return this.ordinals;
+		}
+
+		/**
+		 * @param page     the number of the page, starting at 0
+		 * @param pageSize the number of photos on a page
+		 * @return the ordinals of the photos on the page, empty after the last page
+		 */
+		public List<Integer> pageOrdinals(int page, int pageSize) {
+			List<Integer> ords = new ArrayList<>();
+			long from = (long) page * pageSize;
+			if (from >= size()) {
+				return ords;
+			}
+			PeekableIntIterator it = this.ordinals.getIntIterator();
+			it.advanceIfNeeded(this.ordinals.select((int) from));
+			while (it.hasNext() && (ords.size() < pageSize)) {
+				ords.add(it.next());
+			}
+			return ords;
+		}
+	}
+
+	/**
+	 * The header of a tag as it was when the query started.
+	 */
+	private static class Header {
+		final int count;
+		final long version;
+
+		Header(int count, long version) {
+			this.count = count;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param database MongoDatabase object
+	 * @param conf     configuration properties
+	 */
+	public TagQueryEngine(MongoDatabase database, Properties conf) {
+		this.tcol = database.getCollection("tags");
+		this.pcol = database.getCollection("photos");
+		this.counters = new Counters(database);
+		this.cache = new PostingListCache(Long.parseLong(conf.getProperty("query.cache.mb", "16")) * 1024L * 1024L);
+	}
+
+	/**
+	 * Parse and execute a query.
+	 *
+	 * @param query the query
+	 * @return the photos that match
+	 * @throws IllegalArgumentException if the query is not valid
+	 */
+	public Result execute(String query) {
+		return execute(TagQuery.parse(query));
+	}
+
+	/**
+	 * Execute a query.
+	 *
+	 * @param query the query
+	 * @return the photos that match
+	 */
+	public Result execute(TagQuery query) {
+		long start = System.nanoTime();
+		Set<String> tags = new LinkedHashSet<>();
+		query.collectTags(tags);
+		Map<String, Header> headers = new HashMap<>();
+		for (Document d : this.tcol.find(in("tag", tags)).projection(fields(include("tag", "count", "version"), excludeId()))) {
+			Number version = (Number) d.get("version");
+			headers.put(d.getString("tag"), new Header(d.getInteger("count", 0), version == null ? 0 : version.longValue()));
+		}
+		RoaringBitmap bm = evaluate(query, headers);
+		log.debug("Query '" + query + "' found " + bm.getCardinality() + " photos in "
+				+ ((System.nanoTime() - start) / 1_000_000L) + " ms, cache hits " + this.cache.getHits() + ", misses "
+				+ this.cache.getMisses());
+		return new Result(bm);
+	}
+
+	/**
+	 * @return the cache of tag bitmaps
+	 */
+	public PostingListCache getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Evaluate a query. The bitmap returned may be shared with the cache, so it
+	 * is never modified.
+	 */
+	private RoaringBitmap evaluate(TagQuery q, Map<String, Header> headers) {
+		if (q instanceof TagQuery.Tag) {
+			return load(((TagQuery.Tag) q).tag, headers);
+		} else if (q instanceof TagQuery.Or) {
+			RoaringBitmap result = new RoaringBitmap();
+			for (TagQuery t : ((TagQuery.Or) q).terms) {
+				result.or(evaluate(t, headers));
+			}
+			return result;
+		} else if (q instanceof TagQuery.Not) {
+			return RoaringBitmap.andNot(universe(), evaluate(((TagQuery.Not) q).term, headers));
+		} else {
+			return evaluateAnd((TagQuery.And) q, headers);
+		}
+	}
+
+	private RoaringBitmap evaluateAnd(TagQuery.And and, Map<String, Header> headers) {
+		List<TagQuery> positive = new ArrayList<>();
+		List<TagQuery> negative = new ArrayList<>();
+		for (TagQuery t : and.terms) {
+			if (t instanceof TagQuery.Not) {
+				negative.add(((TagQuery.Not) t).term);
+			} else {
+				positive.add(t);
+			}
+		}
+		positive.sort(Comparator.comparingLong(t -> estimate(t, headers)));
+		RoaringBitmap result = null;
+		for (TagQuery t : positive) {
+			long estimate = estimate(t, headers);
+			if (estimate == 0) {
+				return new RoaringBitmap();
+			}
+			if (result == null) {
+				result = evaluate(t, headers).clone();
+			} else if ((t instanceof TagQuery.Tag) && shouldProbe(((TagQuery.Tag) t).tag, result, estimate)) {
+				result = probe(((TagQuery.Tag) t).tag, result);
+			} else {
+				result.and(evaluate(t, headers));
+			}
+			if (result.isEmpty()) {
+				return result;
+			}
+		}
+		if (result == null) {
+			// only negative terms
+			result = universe().clone();
+		}
+		for (TagQuery t : negative) {
+			result.andNot(evaluate(t, headers));
+			if (result.isEmpty()) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Estimate the number of photos that match without loading any bitmap.
+	 */
+	private long estimate(TagQuery q, Map<String, Header> headers) {
+		if (q instanceof TagQuery.Tag) {
+			Header h = headers.get(((TagQuery.Tag) q).tag);
+			return h == null ? 0 : h.count;
+		} else if (q instanceof TagQuery.Or) {
+			long sum = 0;
+			for (TagQuery t : ((TagQuery.Or) q).terms) {
+				sum += estimate(t, headers);
+			}
+			return sum;
+		} else if (q instanceof TagQuery.And) {
+			long min = Long.MAX_VALUE;
+			for (TagQuery t : ((TagQuery.And) q).terms) {
+				if (!(t instanceof TagQuery.Not)) {
+					min = Math.min(min, estimate(t, headers));
+				}
+			}
+			return min == Long.MAX_VALUE ? Integer.MAX_VALUE : min;
+		} else {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	private boolean shouldProbe(String tag, RoaringBitmap result, long count) {
+		int n = result.getCardinality();
+		return (n <= PROBE_LIMIT) && (count > ((long) n * PROBE_RATIO)) && !this.cache.contains(tag);
+	}
+
+	/**
+	 * Keep the photos of the result that have the tag, by looking at the tags of
+	 * those photos only.
+	 */
+	private RoaringBitmap probe(String tag, RoaringBitmap result) {
+		List<Integer> ords = new ArrayList<>();
+		result.forEach((int o) -> ords.add(o));
+		Pattern p = Pattern.compile("(^|;)" + Pattern.quote(tag) + "(;|$)", Pattern.CASE_INSENSITIVE);
+		RoaringBitmap kept = new RoaringBitmap();
+		for (Document d : this.pcol.find(and(in("ordinal", ords), regex("tags", p)))
+				.projection(fields(include("ordinal"), excludeId()))) {
+			kept.add(d.getInteger("ordinal"));
+		}
+		return kept;
+	}
+
+	/**
+	 * Get the bitmap of a tag from the cache, or load it.
+	 */
+	private RoaringBitmap load(String tag, Map<String, Header> headers) {
+		Header h = headers.get(tag);
+		if (h == null) {
+			return new RoaringBitmap();
+		}
+		RoaringBitmap bm = this.cache.get(tag, h.version);
+		if (bm != null) {
+			return bm;
+		}
+		Document d = this.tcol.find(eq("tag", tag)).projection(include("bitmap", "version")).first();
+		if (d == null) {
+			return new RoaringBitmap();
+		}
+		bm = TagStore.toBitmap(d.get("bitmap", Binary.class));
+		Number version = (Number) d.get("version");
+		this.cache.put(tag, version == null ? 0 : version.longValue(), bm);
+		return bm;
+	}
+
+	/**
+	 * The ordinals of all photos, needed for NOT. It is loaded again when a
+	 * photo was added or removed.
+	 */
+	private synchronized RoaringBitmap universe() {
+		String key = this.pcol.estimatedDocumentCount() + "/" + this.counters.current(Counters.PHOTO);
+		if ((this.universe == null) || !key.equals(this.universeKey)) {
+			RoaringBitmap bm = new RoaringBitmap();
+			for (Document d : this.pcol.find().projection(fields(include("ordinal"), excludeId()))) {
+				bm.add(d.getInteger("ordinal", 0));
+			}
+			bm.remove(0);
+			bm.runOptimize();
+			this.universe = bm;
+			this.universeKey = key;
+		}
+		return this.universe;
+	}
+}
@@ -0,0 +1,563 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.pullAll;
+import static com.mongodb.client.model.Updates.pushEach;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.setOnInsert;
+import static com.mongodb.client.model.Updates.unset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.roaringbitmap.RoaringBitmap;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.das.tagphotos.model.Photo;
+import nl.das.tagphotos.model.TagIndex;
+
+/**
+ * Maintains the tag index. Every tag has a header record in the tags
+ * collection with the number of photos and the number of buckets. The ids of
+ * the photos are kept in the tagbuckets collection in buckets of at most
+ * {@value #BUCKET_SIZE} ids, so a popular tag never comes near the maximum
+ * document size and an update only touches one small bucket.
+ * <p>
+ * The header also holds the ordinals of the photos as a serialized Roaring
+ * bitmap, for fast AND/OR between tags. The bitmap is replaced with an
+ * optimistic compare and set on the version of the header.
+ * <p>
+ * All changes are done on the server with atomic $push and $pull updates, so
+ * several importers can update the same tag at the same time. A tag is only
+ * deleted if it has no photos left at that moment.
+ */
+@Slf4j
+public class TagStore {
+
+	/** Maximum number of ids in a bucket */
+	static final int BUCKET_SIZE = 1000;
+	private static final int DUPLICATE_KEY = 11000;
+	private static final int MAX_RETRIES = 10;
+
+	private final MongoCollection<Document> tcol;
+	private final MongoCollection<TagIndex> tidx;
+	private final MongoCollection<Document> bcol;
+	private final MongoCollection<Document> pcol;
+	private final Counters counters;
+
+	/**
+	 * Constructor
+	 *
+	 * @param database MongoDatabase object
+	 */
+	public TagStore(MongoDatabase database) {
+		this.tcol = database.getCollection("tags");
+		this.tidx = database.getCollection("tags", TagIndex.class);
+		this.bcol = database.getCollection("tagbuckets");
+		this.pcol = database.getCollection("photos");
+		this.counters = new Counters(database);
+		boolean indexed = createIndexes();
+		if (migrate() && !indexed) {
+			// the duplicate tag records that blocked the unique index are gone
+			createIndexes();
+		}
+	}
+
+	private boolean createIndexes() {
+		try {
+			// concurrent upserts of the same tag must not create two records
+			this.tcol.createIndex(Indexes.ascending("tag"), new IndexOptions().unique(true));
+			this.bcol.createIndex(Indexes.ascending("tag", "bucket"), new IndexOptions().unique(true));
+			this.bcol.createIndex(Indexes.ascending("tag", "ids"));
+			return true;
+		} catch (MongoException e) {
+			log.warn("Cannot create the indexes of the tag index: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Find a tag.
+	 *
+	 * @param tag the tag
+	 * @return the header record of the tag or null if the tag is not used
+	 */
+	public TagIndex find(String tag) {
+		return this.tidx.find(eq("tag", tag)).first();
+	}
+
+	/**
+	 * Stream the ids of the photos with a tag, one bucket at a time. Only the
+	 * bucket that is being read is held in memory.
+	 *
+	 * @param tag the tag
+	 * @return the buckets of the tag, in bucket order
+	 */
+	public MongoIterable<List<String>> buckets(String tag) {
+		return this.bcol.find(eq("tag", tag)).projection(fields(include("ids"), excludeId()))
+				.sort(ascending("bucket")).batchSize(1).map(d -> d.getList("ids", String.class));
+	}
+
+	/**
+	 * Load the ordinals of the photos with a tag.
+	 *
+	 * @param tag the tag
+	 * @return the bitmap, empty if the tag is not used
+	 */
+	public RoaringBitmap bitmap(String tag) {
+		Document header = this.tcol.find(eq("tag", tag)).projection(include("bitmap")).first();
+		return header == null ? new RoaringBitmap() : toBitmap(header.get("bitmap", Binary.class));
+	}
+
+	/**
+	 * Add a photo to all of its tags.
+	 *
+	 * @param photo the photo
+	 */
+	public void addPhoto(Photo photo) {
+		update(byTag(photo), Collections.emptyMap());
+	}
+
+	/**
+	 * Remove a photo from all of its tags.
+	 *
+	 * @param photo the photo
+	 */
+	public void removePhoto(Photo photo) {
+		update(Collections.emptyMap(), byTag(photo));
+	}
+
+	/**
+	 * Split the tags of a photo.
+	 *
+	 * @param tags the semicolon separated tags
+	 * @return the lowercase tags without duplicates
+	 */
+	public static Set<String> split(String tags) {
+		Set<String> set = new LinkedHashSet<>();
+		if ((tags != null) && (tags.length() > 0)) {
+			for (String tag : tags.split(";")) {
+				set.add(tag.toLowerCase());
+			}
+		}
+		return set;
+	}
+
+	private static Map<String, List<Photo>> byTag(Photo photo) {
+		Map<String, List<Photo>> map = new LinkedHashMap<>();
+		for (String tag : split(photo.getTags())) {
+			map.put(tag, Collections.singletonList(photo));
+		}
+		return map;
+	}
+
+	private static List<String> ids(Collection<Photo> photos) {
+		List<String> ids = new ArrayList<>();
+		for (Photo p : photos) {
+			ids.add(p.getId());
+		}
+		return ids;
+	}
+
+	private static RoaringBitmap ordinals(Collection<Photo> photos) {
+		RoaringBitmap bm = new RoaringBitmap();
+		if (photos != null) {
+			for (Photo p : photos) {
+				if (p.getOrdinal() > 0) {
+					bm.add(p.getOrdinal());
+				}
+			}
+		}
+		return bm;
+	}
+
+	static RoaringBitmap toBitmap(Binary bytes) {
+		RoaringBitmap bm = new RoaringBitmap();
+		if (bytes != null) {
+			try {
+				bm.deserialize(ByteBuffer.wrap(bytes.getData()));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return bm;
+	}
+
+	static byte[] toBytes(RoaringBitmap bm) {
+		bm.runOptimize();
+		ByteBuffer buf = ByteBuffer.allocate(bm.serializedSizeInBytes());
+		bm.serialize(buf);
+		return buf.array();
+	}
+
+	/**
+	 * Apply the additions and removals of several tags and delete the tags that
+	 * became empty. The counts on the headers of all tags are updated with one
+	 * unordered bulk write. When anything changed the
+	 * {@link Counters#GENERATION} is counted up.
+	 *
+	 * @param added   per tag the photos to add
+	 * @param removed per tag the photos to remove
+	 */
+	public void update(Map<String, ? extends Collection<Photo>> added, Map<String, ? extends Collection<Photo>> removed) {
+		Map<String, Integer> counts = new LinkedHashMap<>();
+		for (Map.Entry<String, ? extends Collection<Photo>> e : removed.entrySet()) {
+			int n = pull(e.getKey(), ids(e.getValue()));
+			if (n > 0) {
+				counts.put(e.getKey(), -n);
+			}
+		}
+		Map<String, List<String>> toAdd = new LinkedHashMap<>();
+		for (Map.Entry<String, ? extends Collection<Photo>> e : added.entrySet()) {
+			List<String> ids = missing(e.getKey(), ids(e.getValue()));
+			if (!ids.isEmpty()) {
+				toAdd.put(e.getKey(), ids);
+				counts.merge(e.getKey(), ids.size(), Integer::sum);
+			}
+		}
+		// The headers are counted up before the ids are placed, so a header
+		// with count 0 never has ids on their way to its buckets.
+		updateCounts(counts);
+		for (Map.Entry<String, List<String>> e : toAdd.entrySet()) {
+			push(e.getKey(), e.getValue());
+		}
+		Set<String> tags = new LinkedHashSet<>(added.keySet());
+		tags.addAll(removed.keySet());
+		for (String tag : tags) {
+			updateBitmap(tag, ordinals(added.get(tag)), ordinals(removed.get(tag)));
+		}
+		for (String tag : removed.keySet()) {
+			deleteIfEmpty(tag);
+		}
+		if (!counts.isEmpty()) {
+			this.counters.reserve(Counters.GENERATION, 1);
+		}
+	}
+
+	/**
+	 * @return the ids that are not in a bucket of the tag yet
+	 */
+	private List<String> missing(String tag, Collection<String> ids) {
+		Set<String> wanted = new LinkedHashSet<>(ids);
+		try (MongoCursor<Document> cursor = this.bcol.find(and(eq("tag", tag), in("ids", wanted)))
+				.projection(fields(include("ids"), excludeId())).cursor()) {
+			while (cursor.hasNext()) {
+				wanted.removeAll(new HashSet<>(cursor.next().getList("ids", String.class)));
+			}
+		}
+		return new ArrayList<>(wanted);
+	}
+
+	/**
+	 * Put ids in the buckets of a tag. The first bucket with room is filled up
+	 * first; the size in the filter makes sure two writers cannot overfill it.
+	 * When all buckets are full a new one is numbered from the header.
+	 */
+	private void push(String tag, List<String> ids) {
+		int from = 0;
+		int retries = 0;
+		while (from < ids.size()) {
+			Document open = this.bcol.find(and(eq("tag", tag), Filters.lt("size", BUCKET_SIZE)))
+					.projection(include("bucket", "size")).sort(ascending("bucket")).first();
+			if (open != null) {
+				int size = open.getInteger("size");
+				int n = Math.min(BUCKET_SIZE - size, ids.size() - from);
+				List<String> part = ids.subList(from, from + n);
+				if (this.bcol.updateOne(and(eq("_id", open.get("_id")), lte("size", BUCKET_SIZE - n)),
+						combine(pushEach("ids", part), inc("size", n))).getModifiedCount() == 1) {
+					from += n;
+					continue;
+				}
+			} else {
+				int n = Math.min(BUCKET_SIZE, ids.size() - from);
+				List<String> part = ids.subList(from, from + n);
+				Document header = this.tcol.findOneAndUpdate(eq("tag", tag), inc("buckets", 1),
+						new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+				Document bucket = new Document("tag", tag).append("bucket", header.getInteger("buckets") - 1)
+						.append("size", n).append("ids", new ArrayList<>(part));
+				try {
+					this.bcol.insertOne(bucket);
+					from += n;
+					continue;
+				} catch (MongoWriteException e) {
+					// a tag that was deleted and used again at the same time
+					if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+						throw e;
+					}
+				}
+			}
+			if (++retries > MAX_RETRIES) {
+				throw new RuntimeException("Cannot add " + (ids.size() - from) + " ids to tag '" + tag + "'");
+			}
+		}
+	}
+
+	/**
+	 * Remove ids from the buckets of a tag.
+	 *
+	 * @return the number of ids that were actually removed
+	 */
+	private int pull(String tag, Collection<String> ids) {
+		List<String> list = new ArrayList<>(new LinkedHashSet<>(ids));
+		List<Object> buckets = new ArrayList<>();
+		for (Document d : this.bcol.find(and(eq("tag", tag), in("ids", list))).projection(include("_id"))) {
+			buckets.add(d.get("_id"));
+		}
+		int removed = 0;
+		for (Object id : buckets) {
+			// the bucket as it was before the pull tells how many ids it lost
+			Document before = this.bcol.findOneAndUpdate(eq("_id", id), pullAll("ids", list),
+					new FindOneAndUpdateOptions().projection(include("ids")));
+			if (before != null) {
+				Set<String> had = new HashSet<>(before.getList("ids", String.class));
+				had.retainAll(list);
+				if (!had.isEmpty()) {
+					this.bcol.updateOne(eq("_id", id), inc("size", -had.size()));
+					removed += had.size();
+				}
+			}
+		}
+		return removed;
+	}
+
+	private void updateCounts(Map<String, Integer> counts) {
+		List<WriteModel<Document>> models = new ArrayList<>();
+		UpdateOptions upsert = new UpdateOptions().upsert(true);
+		for (Map.Entry<String, Integer> e : counts.entrySet()) {
+			models.add(new UpdateOneModel<>(eq("tag", e.getKey()),
+					combine(inc("count", e.getValue()), setOnInsert("buckets", 0), setOnInsert("version", 0L)),
+					upsert));
+		}
+		if (models.isEmpty()) {
+			return;
+		}
+		try {
+			this.tcol.bulkWrite(models, new BulkWriteOptions().ordered(false));
+		} catch (MongoBulkWriteException e) {
+			// Two upserts of a new tag can race; the loser fails on the unique index
+			// and only its failed update is applied again.
+			List<WriteModel<Document>> retry = new ArrayList<>();
+			for (BulkWriteError error : e.getWriteErrors()) {
+				if (error.getCode() != DUPLICATE_KEY) {
+					throw e;
+				}
+				retry.add(models.get(error.getIndex()));
+			}
+			this.tcol.bulkWrite(retry, new BulkWriteOptions().ordered(false));
+		}
+	}
+
+	/**
+	 * Add and remove ordinals in the bitmap of a tag. When another writer
+	 * changed the bitmap in the meantime, the version does not match and the
+	 * change is applied again to the new bitmap.
+	 */
+	private void updateBitmap(String tag, RoaringBitmap add, RoaringBitmap remove) {
+		if (add.isEmpty() && remove.isEmpty()) {
+			return;
+		}
+		while (true) {
+			Document header = this.tcol.find(eq("tag", tag)).projection(include("bitmap", "version")).first();
+			if (header == null) {
+				// a tag that was deleted because its last photo was removed
+				return;
+			}
+			RoaringBitmap bm = toBitmap(header.get("bitmap", Binary.class));
+			bm.or(add);
+			bm.andNot(remove);
+			if (replaceBitmap(header, bm)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Replace the bitmap of a tag if its version is still the one in the header.
+	 *
+	 * @return false if another writer changed the tag first
+	 */
+	private boolean replaceBitmap(Document header, RoaringBitmap bm) {
+		Object version = header.get("version");
+		long next = version == null ? 1 : ((Number) version).longValue() + 1;
+		Bson filter = and(eq("_id", header.get("_id")), version == null ? exists("version", false) : eq("version", version));
+		return this.tcol.updateOne(filter, combine(set("bitmap", toBytes(bm)), set("version", next)))
+				.getModifiedCount() == 1;
+	}
+
+	/**
+	 * Delete a tag that has no photos left. The condition is checked by the
+	 * server, so a photo added in the meantime keeps the tag alive.
+	 */
+	private void deleteIfEmpty(String tag) {
+		if (this.tcol.deleteOne(and(eq("tag", tag), lte("count", 0))).getDeletedCount() == 1) {
+			this.bcol.deleteMany(and(eq("tag", tag), eq("size", 0)));
+		}
+	}
+
+	/**
+	 * Move the ids of tags that were stored in the tag record itself, as older
+	 * versions did, to buckets. Older versions could create two records for
+	 * the same tag; their ids are merged into the buckets of the first one and
+	 * the others are deleted.
+	 *
+	 * @return true if duplicate records were deleted
+	 */
+	private boolean migrate() {
+		List<Document> legacy = new ArrayList<>();
+		this.tcol.find(exists("ids")).projection(include("tag")).into(legacy);
+		Map<String, List<Object>> byTag = new LinkedHashMap<>();
+		for (Document d : legacy) {
+			byTag.computeIfAbsent(d.getString("tag"), t -> new ArrayList<>()).add(d.get("_id"));
+		}
+		boolean merged = false;
+		for (Map.Entry<String, List<Object>> e : byTag.entrySet()) {
+			String tag = e.getKey();
+			Set<String> all = new LinkedHashSet<>();
+			List<Object> records = new ArrayList<>();
+			for (Document full : this.tcol.find(eq("tag", tag))) {
+				records.add(full.get("_id"));
+				if (full.containsKey("ids")) {
+					all.addAll(full.getList("ids", String.class));
+				} else {
+					// a record of the tag that was migrated before
+					for (List<String> bucket : buckets(tag)) {
+						all.addAll(bucket);
+					}
+				}
+			}
+			List<String> ids = new ArrayList<>(all);
+			// remove what an interrupted migration may have left
+			this.bcol.deleteMany(eq("tag", tag));
+			List<Document> buckets = new ArrayList<>();
+			for (int from = 0; from < ids.size(); from += BUCKET_SIZE) {
+				List<String> part = ids.subList(from, Math.min(from + BUCKET_SIZE, ids.size()));
+				buckets.add(new Document("tag", tag).append("bucket", buckets.size()).append("size", part.size())
+						.append("ids", new ArrayList<>(part)));
+			}
+			if (!buckets.isEmpty()) {
+				this.bcol.insertMany(buckets);
+			}
+			Object first = e.getValue().get(0);
+			Bson header = combine(unset("ids"), unset("bitmap"), set("count", ids.size()),
+					set("buckets", buckets.size()));
+			this.tcol.updateOne(eq("_id", first), header);
+			records.remove(first);
+			if (!records.isEmpty()) {
+				this.tcol.deleteMany(in("_id", records));
+				merged = true;
+				log.info("Merged " + (records.size() + 1) + " records of tag '" + tag + "'");
+			}
+			log.info("Moved " + ids.size() + " ids of tag '" + tag + "' to " + buckets.size() + " buckets");
+		}
+		if (assignOrdinals() > 0) {
+			// all bitmaps miss the photos that just got an ordinal
+			this.tcol.updateMany(new Document(), combine(unset("bitmap"), inc("version", 1)));
+		}
+		List<Document> headers = new ArrayList<>();
+		this.tcol.find(exists("bitmap", false)).projection(include("tag", "version")).into(headers);
+		for (Document header : headers) {
+			rebuildBitmap(header);
+		}
+		return merged;
+	}
+
+	/**
+	 * Give the photos that were imported by older versions an ordinal.
+	 *
+	 * @return the number of photos that got one
+	 */
+	private int assignOrdinals() {
+		int total = 0;
+		while (true) {
+			List<Document> photos = new ArrayList<>();
+			this.pcol.find(exists("ordinal", false)).projection(include("_id")).limit(BUCKET_SIZE).into(photos);
+			if (photos.isEmpty()) {
+				break;
+			}
+			int next = this.counters.reserve(Counters.PHOTO, photos.size());
+			List<WriteModel<Document>> models = new ArrayList<>();
+			for (Document p : photos) {
+				models.add(new UpdateOneModel<>(and(eq("_id", p.get("_id")), exists("ordinal", false)),
+						set("ordinal", next++)));
+			}
+			this.pcol.bulkWrite(models, new BulkWriteOptions().ordered(false));
+			total += photos.size();
+		}
+		if (total > 0) {
+			log.info("Assigned an ordinal to " + total + " photos");
+		}
+		return total;
+	}
+
+	/**
+	 * Build the bitmap of a tag from its buckets.
+	 */
+	private void rebuildBitmap(Document header) {
+		String tag = header.getString("tag");
+		while (true) {
+			RoaringBitmap bm = new RoaringBitmap();
+			for (List<String> ids : buckets(tag)) {
+				for (Document p : this.pcol.find(in("_id", ids)).projection(include("ordinal"))) {
+					bm.add(p.getInteger("ordinal"));
+				}
+			}
+			if (replaceBitmap(header, bm)) {
+				log.info("Built the bitmap of tag '" + tag + "' with " + bm.getCardinality() + " photos");
+				return;
+			}
+			header = this.tcol.find(eq("tag", tag)).projection(include("tag", "version")).first();
+			if (header == null) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.ImageIcon;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import javax.swing.ListModel;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import nl.das.tagphotos.model.Photo;
+
+/**
+ * Shows the thumbnails of a {@link PhotoListModel} in a grid. The cells have a
+ * fixed size, so only the visible cells are rendered, whatever the number of
+ * photos. The thumbnails of the visible rows and of the next screen are
+ * decoded in the background into a cache of {@code viewer.thumbs.cache.mb};
+ * decodes of thumbnails that were scrolled past before they started are
+ * cancelled.
+ */
+public class ThumbnailGrid extends JList<Photo> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient ImageCache thumbs;
+	private final transient ListDataListener pagesListener = new ListDataListener() {
+		@Override
+		public void intervalAdded(ListDataEvent e) {
+			visibleChanged();
+		}
+
+		@Override
+		public void intervalRemoved(ListDataEvent e) {
+			visibleChanged();
+		}
+
+		@Override
+		public void contentsChanged(ListDataEvent e) {
+			visibleChanged();
+		}
+	};
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf configuration properties
+	 */
+	public ThumbnailGrid(Properties conf) {
+		this.thumbs = new ImageCache(Long.parseLong(conf.getProperty("viewer.thumbs.cache.mb", "32")) * 1024L * 1024L,
+				Integer.parseInt(conf.getProperty("viewer.thumbs.threads", "2")));
+		this.thumbs.setListener(path -> repaint());
+		setLayoutOrientation(JList.HORIZONTAL_WRAP);
+		setVisibleRowCount(-1);
+		setFixedCellWidth(ImageImporter.THUMB_WIDTH + 10);
+		setFixedCellHeight(ImageImporter.THUMB_HEIGHT + 10);
+		setCellRenderer(new ThumbRenderer());
+	}
+
+	/**
+	 * Show the photos of a list.
+	 *
+	 * @param photos the photos
+	 */
+	public void setPhotos(PhotoListModel photos) {
+		getModel().removeListDataListener(this.pagesListener);
+		setModel(photos);
+		photos.addListDataListener(this.pagesListener);
+		SwingUtilities.invokeLater(this::visibleChanged);
+	}
+
+	/**
+	 * Decode the thumbnails of the visible cells and of the next screen. Called
+	 * when the grid is scrolled or resized and when photos are loaded.
+	 */
+	public void visibleChanged() {
+		ListModel<Photo> model = getModel();
+		int first = getFirstVisibleIndex();
+		int last = getLastVisibleIndex();
+		if (!(model instanceof PhotoListModel) || (first < 0)) {
+			return;
+		}
+		((PhotoListModel) model).setCurrent(first);
+		int to = Math.min(model.getSize() - 1, last + ((last - first) + 1));
+		List<String> paths = new ArrayList<>();
+		for (int i = first; i <= to; i++) {
+			// not loaded photos are asked for again when their page arrives
+			Photo photo = model.getElementAt(i);
+			if (photo != null) {
+				paths.add(thumbFile(photo));
+			}
+		}
+		this.thumbs.prefetch(paths);
+	}
+
+	/**
+	 * Stop decoding. The grid can not be used anymore.
+	 */
+	public void dispose() {
+		this.thumbs.shutdown();
+	}
+
+	/**
+	 * @param photo the photo
+	 * @return the file with the thumbnail of the photo
+	 */
+	static String thumbFile(Photo photo) {
+		return photo.getPath() + "/thumbs/" + photo.getId() + ".jpg";
+	}
+
+	/**
+	 * Renders a cell with the thumbnail if it is decoded, otherwise empty.
+	 */
+	private class ThumbRenderer implements ListCellRenderer<Photo> {
+		private final DefaultListCellRenderer label = new DefaultListCellRenderer();
+
+		ThumbRenderer() {
+			this.label.setHorizontalAlignment(SwingConstants.CENTER);
+			this.label.setVerticalAlignment(SwingConstants.CENTER);
+		}
+
+		@Override
+		public Component getListCellRendererComponent(JList<? extends Photo> list, Photo photo, int index,
+				boolean isSelected, boolean cellHasFocus) {
+			this.label.getListCellRendererComponent(list, null, index, isSelected, cellHasFocus);
+			this.label.setText(null);
+			this.label.setIcon(null);
+			this.label.setToolTipText(null);
+			if (photo != null) {
+				BufferedImage image = ThumbnailGrid.this.thumbs.getIfPresent(thumbFile(photo));
+				if (image != null) {
+					this.label.setIcon(new ImageIcon(image));
+				}
+				this.label.setToolTipText(photo.getOrigFilename());
+			}
+			this.label.setBorder(BorderFactory.createLineBorder(isSelected ? Color.BLUE : list.getBackground(), 2));
+			return this.label;
+		}
+	}
+}
@@ -10,13 +10,18 @@ package nl.das.tagphotos;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
@@ -26,6 +31,13 @@ import nl.das.tagphotos.model.Photo;
  * General utility methods.
  */
 public class Utils {
+
+	/** Configured once; mappers, readers and writers are thread safe */
+	private static final ObjectMapper MAPPER = createMapper();
+	private static final ObjectWriter WRITER = MAPPER.writer();
+	private static final ObjectWriter PRETTY_WRITER = MAPPER.writerWithDefaultPrettyPrinter();
+	private static final Map<Type, ObjectReader> READERS = new ConcurrentHashMap<>();
+
 	/**
 	 * Creates a mapper object to be used in the (de-)serialization.
 	 *
@@ -46,6 +58,28 @@ public class Utils {
 		return mapper;
 	}
 
+	/**
+	 * @return the shared mapper, do not change its configuration
+	 */
+	public static ObjectMapper getMapper() {
+		return MAPPER;
+	}
+
+	/**
+	 * @return the shared writer of compact JSON
+	 */
+	public static ObjectWriter writer() {
+		return WRITER;
+	}
+
+	/**
+	 * @param type the type to read
+	 * @return the shared reader of the type
+	 */
+	public static ObjectReader reader(Type type) {
+		return READERS.computeIfAbsent(type, t -> MAPPER.readerFor(MAPPER.constructType(t)));
+	}
+
 	/**
 	 * Converts the passed-in <code>object</code> to JSON based on the configured
 	 * object mapper.
@@ -56,7 +90,7 @@ public class Utils {
 	 */
 	public static <T> String toJson(final T object) {
 		try {
-			return createMapper().writerWithDefaultPrettyPrinter().writeValueAsString(object);
+			return PRETTY_WRITER.writeValueAsString(object);
 		} catch (final Exception exception) {
 			throw new RuntimeException(exception);
 		}
@@ -76,7 +110,7 @@ public class Utils {
 	 * @throws Exception
 	 */
 	public static <T> T fromJson(final String jsonString, final Class<T> clz) throws Exception {
-		final T t = createMapper().readValue(jsonString, clz);
+		final T t = reader(clz).readValue(jsonString);
 		if (t == null) {
 			throw new Exception("Cannot convert JSON to " + clz.getSimpleName() + " object:\n" + jsonString);
 		}
@@ -100,7 +134,7 @@ public class Utils {
 	 */
 	@SuppressWarnings("unchecked")
 	public static <T> T fromJson(final String jsonString, TypeReference<?> clz) throws Exception {
-		final T t = (T) createMapper().readValue(jsonString, clz);
+		final T t = (T) reader(clz.getType()).readValue(jsonString);
 		if (t == null) {
 			throw new Exception("Cannot convert JSON to " + clz.getType().getTypeName() + " object:\n" + jsonString);
 		}
@@ -0,0 +1,297 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.mongodb.client.MongoDatabase;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Imports the photos that appear in the inbox folders of
+ * {@code watch.folders}, and in their subfolders, without scanning the
+ * folders again and again: the folders are watched with a
+ * {@link WatchService}.
+ * <p>
+ * A file that is still being copied is not imported: a file is only ready
+ * when its size and modification time did not change for
+ * {@code watch.stable.ms}, and it is only a photo when it then starts with
+ * the JPEG marker bytes, see {@link FolderDiscovery#isJpeg(Path)}. Ready
+ * photos are imported in batches of at most {@code watch.batch.size}; a
+ * smaller batch is imported when its first photo has waited
+ * {@code watch.batch.delay.ms}. So a card dump is imported in small portions
+ * while it is copied, instead of in one burst afterwards.
+ */
+@Slf4j
+public class WatchDaemon {
+
+	private final List<Path> inboxes = new ArrayList<>();
+	private final long stableMillis;
+	private final int batchSize;
+	private final long batchDelay;
+	private final boolean scanOnStart;
+	private final ImportPipeline pipeline;
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+	/** Files seen but not yet stable, in the order they were seen */
+	private final Map<Path, Candidate> candidates = new LinkedHashMap<>();
+	/** Stable files waiting for their batch */
+	private final List<Path> ready = new ArrayList<>();
+	private long readySince;
+	private WatchService watcher;
+	private volatile boolean running;
+	private volatile Thread runner;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * A file that is being watched until it does not change anymore.
+	 */
+	private static class Candidate {
+		long size = -1;
+		long modified = -1;
+		long since;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param conf     configuration properties
+	 * @param database MongoDatabase object
+	 */
+	public WatchDaemon(Properties conf, MongoDatabase database) {
+		for (String folder : conf.getProperty("watch.folders", "").split(",")) {
+			if (!folder.trim().isEmpty()) {
+				this.inboxes.add(Paths.get(folder.trim()));
+			}
+		}
+		this.stableMillis = Long.parseLong(conf.getProperty("watch.stable.ms", "2000"));
+		this.batchSize = Math.max(1, Integer.parseInt(conf.getProperty("watch.batch.size", "20")));
+		this.batchDelay = Long.parseLong(conf.getProperty("watch.batch.delay.ms", "10000"));
+		this.scanOnStart = Boolean.parseBoolean(conf.getProperty("watch.scan.on.start", "true"));
+		this.pipeline = new ImportPipeline(conf, new ImageImporter(conf, database));
+		if (conf.getProperty("watch.workers") != null) {
+			this.pipeline.setWorkers(Integer.parseInt(conf.getProperty("watch.workers")));
+		}
+	}
+
+	/**
+	 * Watch the inboxes until the program is stopped.
+	 */
+	public void run() {
+		if (this.inboxes.isEmpty()) {
+			throw new IllegalStateException("No inbox folders configured in watch.folders");
+		}
+		this.runner = Thread.currentThread();
+		try {
+			watch();
+		} finally {
+			this.stopped.countDown();
+		}
+		log.info("Stopped watching");
+	}
+
+	private void watch() {
+		try {
+			this.watcher = FileSystems.getDefault().newWatchService();
+			this.running = true;
+			for (Path inbox : this.inboxes) {
+				register(inbox, this.scanOnStart);
+				log.info("Watching '" + inbox + "'");
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		long tick = Math.max(100, this.stableMillis / 4);
+		try {
+			while (this.running) {
+				WatchKey key = this.watcher.poll(tick, TimeUnit.MILLISECONDS);
+				while (key != null) {
+					handle(key);
+					key = this.watcher.poll();
+				}
+				long now = System.currentTimeMillis();
+				checkCandidates(now);
+				if (!this.ready.isEmpty()
+						&& ((this.ready.size() >= this.batchSize) || ((now - this.readySince) >= this.batchDelay))) {
+					importBatch();
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// stopped
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop watching. A batch that is being imported is finished first: this
+	 * method returns when {@link #run()} has returned.
+	 */
+	public void stop() {
+		this.running = false;
+		try {
+			if (this.watcher != null) {
+				this.watcher.close();
+			}
+		} catch (IOException e) {
+			log.warn("Cannot close the watch service: " + e.getMessage());
+		}
+		// wait until run() has left the batch, unless it is run() that stops
+		Thread r = this.runner;
+		if ((r != null) && (r != Thread.currentThread())) {
+			try {
+				this.stopped.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void handle(WatchKey key) {
+		Path dir = this.keys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (dir == null) {
+				continue;
+			}
+			if (event.kind() == OVERFLOW) {
+				// events were lost, look at the whole folder
+				log.warn("Missed changes in '" + dir + "', scanning it");
+				scan(dir);
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			if (Files.isDirectory(path)) {
+				if (event.kind() == ENTRY_CREATE) {
+					// files may be copied into it before it is watched
+					register(path, true);
+				}
+			} else if (isCandidate(path)) {
+				this.candidates.computeIfAbsent(path, p -> new Candidate());
+			}
+		}
+		if (!key.reset()) {
+			this.keys.remove(key);
+		}
+	}
+
+	/**
+	 * Watch a folder and its subfolders.
+	 *
+	 * @param scan also take the photos that are already there
+	 */
+	private void register(Path folder, boolean scan) {
+		try (Stream<Path> dirs = Files.walk(folder)) {
+			dirs.filter(Files::isDirectory).forEach(dir -> {
+				try {
+					this.keys.put(dir.register(this.watcher, ENTRY_CREATE, ENTRY_MODIFY), dir);
+				} catch (IOException e) {
+					log.warn("Cannot watch '" + dir + "': " + e.getMessage());
+				}
+				if (scan) {
+					scan(dir);
+				}
+			});
+		} catch (IOException e) {
+			log.warn("Cannot watch '" + folder + "': " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Take the photos in a folder as candidates.
+	 */
+	private void scan(Path dir) {
+		try (Stream<Path> files = Files.list(dir)) {
+			files.filter(p -> isCandidate(p) && Files.isRegularFile(p))
+					.forEach(p -> this.candidates.computeIfAbsent(p, c -> new Candidate()));
+		} catch (IOException e) {
+			log.warn("Cannot scan '" + dir + "': " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Move the files that did not change for long enough to the ready list.
+	 */
+	private void checkCandidates(long now) {
+		Iterator<Map.Entry<Path, Candidate>> it = this.candidates.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Path, Candidate> e = it.next();
+			Candidate c = e.getValue();
+			BasicFileAttributes attrs;
+			try {
+				attrs = Files.readAttributes(e.getKey(), BasicFileAttributes.class);
+			} catch (IOException ex) {
+				// deleted or renamed before it was stable
+				it.remove();
+				continue;
+			}
+			long modified = attrs.lastModifiedTime().toMillis();
+			if ((attrs.size() != c.size) || (modified != c.modified)) {
+				c.size = attrs.size();
+				c.modified = modified;
+				c.since = now;
+			} else if (((now - c.since) >= this.stableMillis) && (c.size > 0)) {
+				it.remove();
+				if (!FolderDiscovery.isJpeg(e.getKey())) {
+					log.debug("Not a photo: '" + e.getKey() + "'");
+					continue;
+				}
+				if (this.ready.isEmpty()) {
+					this.readySince = now;
+				}
+				if (!this.ready.contains(e.getKey())) {
+					this.ready.add(e.getKey());
+				}
+			}
+		}
+	}
+
+	private void importBatch() {
+		int n = Math.min(this.batchSize, this.ready.size());
+		List<Path> batch = new ArrayList<>(this.ready.subList(0, n));
+		this.ready.subList(0, n).clear();
+		this.readySince = System.currentTimeMillis();
+		log.info("Importing " + batch.size() + " photos, " + this.ready.size() + " more ready, "
+				+ this.candidates.size() + " not stable yet");
+		ImportReport report = this.pipeline.run(batch, null);
+		for (String failure : report.getFailures()) {
+			log.warn("Not imported: " + failure);
+		}
+	}
+
+	/**
+	 * Hidden files, like the temporary files of rsync, are never photos. The
+	 * other files are looked at when they are stable.
+	 */
+	private static boolean isCandidate(Path path) {
+		return !path.getFileName().toString().startsWith(".");
+	}
+}
@@ -23,6 +23,9 @@ public class Photo {
 	private int thumbHeight;
 	private long creationDate;
 	private String path;
+	private String origPath;
+	private String hash;
+	private int ordinal;
 
 	public Photo() {
 	}
@@ -181,4 +184,47 @@ public class Photo {
 		this.path = path;
 	}
 
+	/**
+	 * @return the absolute path of the file the photo was imported from
+	 */
+	public String getOrigPath() {
+		return this.origPath;
+	}
+
+	/**
+	 * @param origPath the origPath to set
+	 */
+	public void setOrigPath(String origPath) {
+		this.origPath = origPath;
+	}
+
+	/**
+	 * @return the SHA-256 checksum of the original
+	 */
+	public String getHash() {
+		return this.hash;
+	}
+
+	/**
+	 * @param hash the hash to set
+	 */
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+
+	/**
+	 * @return the dense number of the photo used in the tag bitmaps, 0 if not
+	 *         assigned yet
+	 */
+	public int getOrdinal() {
+		return this.ordinal;
+	}
+
+	/**
+	 * @param ordinal the ordinal to set
+	 */
+	public void setOrdinal(int ordinal) {
+		this.ordinal = ordinal;
+	}
+
 }
@@ -8,23 +8,15 @@
 
 package nl.das.tagphotos.model;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
- * 
+ * The header record of a tag. The ids of the photos are stored in buckets in
+ * the tagbuckets collection, their ordinals in a bitmap on this record.
  */
 public class TagIndex {
 	private String tag;
-	private Set<String> ids = new HashSet<>();
-
-	public void addId(String id) {
-		this.ids.add(id);
-	}
-
-	public void removeId(String id) {
-		this.ids.remove(id);
-	}
+	private int count;
+	private int buckets;
+	private long version;
 
 	/**
 	 * @return the tag
@@ -41,17 +33,45 @@ public class TagIndex {
 	}
 
 	/**
-	 * @return the ids
+	 * @return the number of photos with this tag
+	 */
+	public int getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @param count the count to set
+	 */
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	/**
+	 * @return the number of buckets numbered so far
+	 */
+	public int getBuckets() {
+		return this.buckets;
+	}
+
+	/**
+	 * @param buckets the buckets to set
+	 */
+	public void setBuckets(int buckets) {
+		this.buckets = buckets;
+	}
+
+	/**
+	 * @return the version of the bitmap, increased on every change
 	 */
-	public Set<String> getIds() {
-		return this.ids;
+	public long getVersion() {
+		return this.version;
 	}
 
 	/**
-	 * @param ids the ids to set
+	 * @param version the version to set
 	 */
-	public void setIds(Set<String> ids) {
-		this.ids = ids;
+	public void setVersion(long version) {
+		this.version = version;
 	}
 
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class AlbumServerTest {
+
+	@Test
+	public void testRange() {
+		assertArrayEquals(new long[] { 0, 99 }, AlbumServer.range("bytes=0-99", 1000));
+		assertArrayEquals(new long[] { 500, 999 }, AlbumServer.range("bytes=500-", 1000));
+		assertArrayEquals(new long[] { 900, 999 }, AlbumServer.range("bytes=-100", 1000));
+		assertArrayEquals(new long[] { 0, 999 }, AlbumServer.range("bytes=-5000", 1000));
+		assertArrayEquals(new long[] { 990, 999 }, AlbumServer.range("bytes=990-2000", 1000));
+	}
+
+	@Test
+	public void testNotSatisfiable() {
+		assertArrayEquals(new long[0], AlbumServer.range("bytes=1000-", 1000));
+		assertArrayEquals(new long[0], AlbumServer.range("bytes=-0", 1000));
+	}
+
+	@Test
+	public void testWholeFile() {
+		assertNull(AlbumServer.range(null, 1000));
+		assertNull(AlbumServer.range("bytes=0-99,200-299", 1000));
+		assertNull(AlbumServer.range("items=0-99", 1000));
+		assertNull(AlbumServer.range("bytes=99-0", 1000));
+	}
+}
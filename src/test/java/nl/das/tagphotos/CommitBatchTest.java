@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import nl.das.tagphotos.model.Photo;
+
+/**
+ * What a batch leaves behind when its database writes fail.
+ */
+public class CommitBatchTest {
+
+	@Test
+	public void testTagUpdateFails() {
+		FakeDatabase db = new FakeDatabase();
+		List<Map<String, ? extends Collection<Photo>>> removals = new ArrayList<>();
+		TagStore tags = new TagStore(db.get()) {
+			@Override
+			public void update(Map<String, ? extends Collection<Photo>> added,
+					Map<String, ? extends Collection<Photo>> removed) {
+				if (!added.isEmpty()) {
+					throw new RuntimeException("tag index not available");
+				}
+				removals.add(new HashMap<>(removed));
+			}
+		};
+		CommitBatch batch = new CommitBatch(db.get(), tags);
+		ImportItem a = new ImportItem(0, Paths.get("/card/a.jpg"));
+		ImportItem b = new ImportItem(1, Paths.get("/card/b.jpg"));
+		batch.insert(a, photo("a", "2019;beach"));
+		batch.insert(b, photo("b", "2019"));
+
+		List<ImportItem> done = batch.flush();
+
+		assertEquals(2, done.size());
+		assertFalse(a.isImported());
+		assertFalse(b.isImported());
+		// the photos were written and must be gone again, or a new import would
+		// skip the files as unchanged
+		List<String> calls = db.calls();
+		assertTrue(calls.toString(), calls.contains("photos.bulkWrite 2 models"));
+		assertTrue(calls.toString(), calls.contains("photos.deleteMany {\"_id\": {\"$in\": [\"a\", \"b\"]}}"));
+		assertEquals(1, removals.size());
+		assertEquals(2, removals.get(0).get("2019").size());
+		assertEquals(1, removals.get(0).get("beach").size());
+		assertEquals(0, batch.size());
+	}
+
+	private static Photo photo(String id, String tags) {
+		Photo p = new Photo();
+		p.setId(id);
+		p.setTags(tags);
+		p.setPath("/photos/2019");
+		return p;
+	}
+}
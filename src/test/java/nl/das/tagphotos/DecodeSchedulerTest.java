@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Admission of decodes within the memory budget.
+ */
+public class DecodeSchedulerTest {
+
+	@Test
+	public void testReserveWithinBudget() throws InterruptedException {
+		DecodeScheduler ds = new DecodeScheduler(100);
+		assertEquals(60, ds.reserve(60));
+		assertEquals(40, ds.reserve(40));
+		assertEquals(100, ds.getReservedBytes());
+		ds.release(60);
+		ds.release(40);
+		assertEquals(0, ds.getReservedBytes());
+	}
+
+	@Test
+	public void testOversizedRequestRunsAlone() throws InterruptedException {
+		DecodeScheduler ds = new DecodeScheduler(100);
+		assertEquals(100, ds.reserve(500));
+		assertEquals(100, ds.getReservedBytes());
+	}
+
+	@Test
+	public void testWaitsUntilReleased() throws InterruptedException {
+		DecodeScheduler ds = new DecodeScheduler(100);
+		long first = ds.reserve(80);
+		CountDownLatch admitted = new CountDownLatch(1);
+		Thread t = new Thread(() -> {
+			try {
+				ds.reserve(50);
+				admitted.countDown();
+			} catch (InterruptedException e) {
+				// ends the test thread
+			}
+		});
+		t.start();
+		assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+		assertEquals(1, ds.getQueueDepth());
+		ds.release(first);
+		assertTrue(admitted.await(1, TimeUnit.SECONDS));
+		assertEquals(0, ds.getQueueDepth());
+		assertEquals(50, ds.getReservedBytes());
+	}
+
+	@Test
+	public void testSmallDecodePassesLargeOne() throws InterruptedException {
+		DecodeScheduler ds = new DecodeScheduler(100);
+		ds.reserve(60);
+		CountDownLatch large = new CountDownLatch(1);
+		Thread t = new Thread(() -> {
+			try {
+				ds.reserve(90);
+				large.countDown();
+			} catch (InterruptedException e) {
+				// ends the test thread
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		while (ds.getQueueDepth() == 0) {
+			Thread.sleep(5);
+		}
+		// the large decode waits, a small one still fits next to the running one
+		assertEquals(30, ds.reserve(30));
+		assertEquals(90, ds.getReservedBytes());
+		assertEquals(1, large.getCount());
+	}
+
+	@Test
+	public void testLargeDecodeIsPassedAtMostMaxBypassTimes() throws InterruptedException {
+		DecodeScheduler ds = new DecodeScheduler(100);
+		long first = ds.reserve(60);
+		CountDownLatch large = waitFor(ds, 90);
+		while (ds.getQueueDepth() == 0) {
+			Thread.sleep(5);
+		}
+		for (int i = 0; i < DecodeScheduler.MAX_BYPASS; i++) {
+			ds.release(ds.reserve(10));
+		}
+		// the next small decode would fit, but it has to wait for the large one now
+		CountDownLatch small = waitFor(ds, 20);
+		assertFalse(small.await(100, TimeUnit.MILLISECONDS));
+		assertEquals(2, ds.getQueueDepth());
+		ds.release(first);
+		assertTrue(large.await(1, TimeUnit.SECONDS));
+		assertEquals(1, small.getCount());
+		ds.release(90);
+		assertTrue(small.await(1, TimeUnit.SECONDS));
+		assertEquals(2, ds.getPeakQueueDepth());
+		assertEquals(90, ds.getPeakReservedBytes());
+		ds.resetPeaks();
+		assertEquals(0, ds.getPeakQueueDepth());
+		assertEquals(20, ds.getPeakReservedBytes());
+	}
+
+	@Test
+	public void testEstimate() {
+		assertEquals(6000L * 4000L * DecodeScheduler.BYTES_PER_PIXEL, DecodeScheduler.estimate(6000, 4000, 1));
+		assertEquals(1500L * 1000L * DecodeScheduler.BYTES_PER_PIXEL, DecodeScheduler.estimate(6000, 4000, 4));
+	}
+
+	private static CountDownLatch waitFor(DecodeScheduler ds, long bytes) {
+		CountDownLatch admitted = new CountDownLatch(1);
+		Thread t = new Thread(() -> {
+			try {
+				ds.reserve(bytes);
+				admitted.countDown();
+			} catch (InterruptedException e) {
+				// ends the test thread
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		return admitted;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * A database without a server for the tests: every collection is empty and
+ * every write is only recorded, as "collection.method {filter}".
+ */
+class FakeDatabase {
+
+	private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+	private final MongoDatabase database = proxy(MongoDatabase.class, (p, m, args) -> {
+		if (m.getName().equals("getCollection")) {
+			return collection((String) args[0]);
+		}
+		return empty(p, m);
+	});
+
+	/**
+	 * @return the database
+	 */
+	MongoDatabase get() {
+		return this.database;
+	}
+
+	/**
+	 * @return the writes so far
+	 */
+	List<String> calls() {
+		synchronized (this.calls) {
+			return new ArrayList<>(this.calls);
+		}
+	}
+
+	private MongoCollection<?> collection(String name) {
+		return proxy(MongoCollection.class, (p, m, args) -> {
+			switch (m.getName()) {
+			case "find":
+			case "distinct":
+			case "aggregate":
+				return proxy(m.getReturnType(), FakeDatabase::emptyIterable);
+			case "createIndex":
+				return "";
+			case "findOneAndUpdate":
+				this.calls.add(name + "." + m.getName() + " " + render(args));
+				// a counter that was never used before
+				return new Document("value", 1000).append("buckets", 1);
+			default:
+				if (m.getName().startsWith("insert") || m.getName().startsWith("update")
+						|| m.getName().startsWith("delete") || m.getName().startsWith("replace")
+						|| m.getName().equals("bulkWrite")) {
+					this.calls.add(name + "." + m.getName() + " " + render(args));
+				}
+				return empty(p, m);
+			}
+		});
+	}
+
+	private static Object emptyIterable(Object p, Method m, Object[] args) {
+		switch (m.getName()) {
+		case "first":
+			return null;
+		case "into":
+			return args[0];
+		case "iterator":
+		case "cursor":
+			return proxy(MongoCursor.class, (c, cm, cargs) -> cm.getName().equals("hasNext") ? false : empty(c, cm));
+		default:
+			// the builder methods return the iterable itself
+			return m.getReturnType().isInstance(p) ? p : empty(p, m);
+		}
+	}
+
+	private static String render(Object[] args) {
+		StringBuilder sb = new StringBuilder();
+		for (Object arg : args == null ? new Object[0] : args) {
+			if (arg instanceof Bson) {
+				BsonDocument doc = ((Bson) arg).toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+				sb.append(sb.length() == 0 ? "" : " ").append(doc.toJson());
+			} else if (arg instanceof Collection) {
+				sb.append(sb.length() == 0 ? "" : " ").append(((Collection<?>) arg).size()).append(" models");
+			}
+		}
+		return sb.toString();
+	}
+
+	private static Object empty(Object p, Method m) {
+		Class<?> type = m.getReturnType();
+		if (m.getName().equals("hashCode")) {
+			return System.identityHashCode(p);
+		}
+		if (m.getName().equals("equals")) {
+			return false;
+		}
+		if (m.getName().equals("toString")) {
+			return "fake " + m.getDeclaringClass().getSimpleName();
+		}
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+}
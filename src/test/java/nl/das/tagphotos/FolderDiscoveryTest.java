@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FolderDiscoveryTest {
+
+	private static final byte[] JPEG = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 16 };
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testNestedFolders() throws IOException {
+		Path root = this.tmp.getRoot().toPath();
+		Path a = write(root.resolve("a.jpg"), JPEG);
+		Path b = write(root.resolve("DCIM/100CANON/IMG_0001.JPG"), JPEG);
+		Path c = write(root.resolve("DCIM/101CANON/IMG_0002.jpeg"), JPEG);
+		Path d = write(root.resolve("DCIM/101CANON/noextension"), JPEG);
+		write(root.resolve("DCIM/101CANON/notes.txt"), "hello".getBytes());
+		write(root.resolve(".thumbnails/x.jpg"), JPEG);
+		Properties conf = new Properties();
+		conf.setProperty("import.discovery.threads", "2");
+		FolderDiscovery discovery = new FolderDiscovery(conf);
+		try {
+			List<Path> found = discovery.find(Collections.singletonList(root));
+			assertEquals(Arrays.asList(b, c, d, a), found);
+		} finally {
+			discovery.shutdown();
+		}
+	}
+
+	@Test
+	public void testIsJpeg() throws IOException {
+		Path root = this.tmp.getRoot().toPath();
+		assertTrue(FolderDiscovery.isJpeg(write(root.resolve("photo.txt"), JPEG)));
+		assertFalse(FolderDiscovery.isJpeg(write(root.resolve("fake.jpg"), "not a photo".getBytes())));
+		assertFalse(FolderDiscovery.isJpeg(write(root.resolve("short.jpg"), new byte[] { (byte) 0xFF, (byte) 0xD8 })));
+		assertFalse(FolderDiscovery.isJpeg(root.resolve("missing.jpg")));
+	}
+
+	private static Path write(Path file, byte[] content) throws IOException {
+		Files.createDirectories(file.getParent());
+		return Files.write(file, content);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Prefetching and eviction of decoded images.
+ */
+public class ImageCacheTest {
+
+	/** 10x10 images take 400 bytes */
+	private static final long IMAGE_BYTES = 400;
+
+	@Test
+	public void testGetDecodesOnceAndCountsHits() throws InterruptedException {
+		AtomicInteger decodes = new AtomicInteger();
+		ImageCache cache = new ImageCache(10 * IMAGE_BYTES, 1, path -> {
+			decodes.incrementAndGet();
+			return new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		});
+		AtomicReference<BufferedImage> image = new AtomicReference<>();
+		CountDownLatch done = new CountDownLatch(1);
+		cache.get("a", img -> {
+			image.set(img);
+			done.countDown();
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertNotNull(image.get());
+		cache.get("a", img -> assertTrue(img == image.get()));
+		assertEquals(1, decodes.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		cache.shutdown();
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() throws InterruptedException {
+		ImageCache cache = new ImageCache(2 * IMAGE_BYTES, 1,
+				path -> new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+		cache.prefetch(Arrays.asList("a", "b"));
+		waitFor(cache, "b");
+		assertTrue(cache.contains("a"));
+		cache.prefetch(Arrays.asList("c"));
+		waitFor(cache, "c");
+		assertFalse(cache.contains("a"));
+		assertTrue(cache.contains("b"));
+		assertEquals(2 * IMAGE_BYTES, cache.getBytes());
+		cache.shutdown();
+	}
+
+	@Test
+	public void testPrefetchPassedIsCancelled() throws InterruptedException {
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ImageCache cache = new ImageCache(10 * IMAGE_BYTES, 1, path -> {
+			if (path.equals("a")) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		});
+		cache.prefetch(Arrays.asList("a", "b"));
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		// the user moved on: b is not needed anymore, c is
+		cache.prefetch(Arrays.asList("c"));
+		release.countDown();
+		waitFor(cache, "c");
+		assertTrue(cache.contains("a"));
+		assertFalse(cache.contains("b"));
+		cache.shutdown();
+	}
+
+	private static void waitFor(ImageCache cache, String path) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (!cache.contains(path) && (System.currentTimeMillis() < end)) {
+			Thread.sleep(5);
+		}
+		assertTrue(cache.contains(path));
+	}
+}
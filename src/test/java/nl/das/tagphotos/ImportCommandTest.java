@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the arguments, which fail before the database is used, and the
+ * outcome of an import into a database without a server.
+ */
+public class ImportCommandTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+	@Test
+	public void testNoFolder() {
+		assertEquals(ImportCommand.EXIT_USAGE, run());
+		assertTrue(this.err.toString().contains("No folder given"));
+		assertEquals(0, this.out.size());
+	}
+
+	@Test
+	public void testNotAFolder() {
+		assertEquals(ImportCommand.EXIT_USAGE, run(this.tmp.getRoot() + "/missing"));
+		assertTrue(this.err.toString().contains("is not a folder"));
+	}
+
+	@Test
+	public void testBadOption() {
+		String folder = this.tmp.getRoot().toString();
+		assertEquals(ImportCommand.EXIT_USAGE, run("--workers", "many", folder));
+		assertEquals(ImportCommand.EXIT_USAGE, run("--workers", "0", folder));
+		assertEquals(ImportCommand.EXIT_USAGE, run("--fast", folder));
+		assertEquals(ImportCommand.EXIT_USAGE, run(folder, "--progress"));
+	}
+
+	@Test
+	public void testPhotoWithoutKeywords() throws IOException {
+		Path card = this.tmp.newFolder("card").toPath();
+		// a JPEG header straight from a camera: no IPTC keywords to take the year from
+		Files.write(card.resolve("IMG_0001.JPG"), new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC0, 0, 8, 8,
+				0, 16, 0, 16, 3, (byte) 0xFF, (byte) 0xDA });
+		Properties conf = new Properties();
+		for (String path : new String[] { "photos", "panoramas", "videos" }) {
+			conf.setProperty("path." + path, this.tmp.newFolder(path).toString());
+		}
+		conf.setProperty("import.journal.dir", this.tmp.getRoot() + "/jobs");
+		conf.setProperty("metadata.cache.file", this.tmp.getRoot() + "/metadata.cache");
+		FakeDatabase db = new FakeDatabase();
+		int exit = new ImportCommand(conf, db.get(), new PrintStream(this.out), new PrintStream(this.err))
+				.run(new String[] { "--workers", "1", card.toString() });
+		assertEquals(ImportCommand.EXIT_FAILED, exit);
+		String summary = this.out.toString();
+		assertTrue(summary, summary.contains("\"imported\":0"));
+		assertTrue(summary, summary.contains("\"failed\":1"));
+		assertTrue(summary, summary.contains("IMG_0001.JPG: cannot be imported, no IPTC metadata"));
+		assertTrue(this.err.toString().contains("Not imported: "));
+		// nothing was written, not even to a folder named after an empty year
+		assertTrue(db.calls().toString(), db.calls().isEmpty());
+		assertFalse(Files.exists(Paths.get(conf.getProperty("path.photos"), "originals")));
+	}
+
+	private int run(String... args) {
+		return new ImportCommand(new Properties(), null, new PrintStream(this.out), new PrintStream(this.err)).run(args);
+	}
+}
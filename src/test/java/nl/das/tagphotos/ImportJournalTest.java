@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.das.tagphotos.ImportJournal.State;
+
+public class ImportJournalTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private Properties conf;
+	private Path folder;
+
+	@Before
+	public void setUp() throws IOException {
+		this.conf = new Properties();
+		this.conf.setProperty("import.journal.dir", this.tmp.newFolder("jobs").toString());
+		this.conf.setProperty("import.journal.sync.records", "2");
+		this.folder = this.tmp.newFolder("card").toPath();
+	}
+
+	@Test
+	public void testResume() {
+		Path a = this.folder.resolve("a.jpg");
+		Path b = this.folder.resolve("b.jpg");
+		ImportJournal journal = ImportJournal.open(this.conf, Collections.singletonList(this.folder));
+		journal.record(a, State.DISCOVERED);
+		journal.record(b, State.DISCOVERED);
+		journal.record(a, State.RENDERED);
+		journal.record(a, State.COMMITTED);
+		// stopped halfway
+		journal.close();
+
+		ImportJournal resumed = ImportJournal.open(this.conf, Collections.singletonList(this.folder));
+		assertEquals(journal.getId(), resumed.getId());
+		assertTrue(resumed.isCommitted(a));
+		assertFalse(resumed.isCommitted(b));
+		resumed.record(b, State.COMMITTED);
+		resumed.finish();
+
+		List<ImportJournal> jobs = ImportJournal.jobs(this.conf);
+		assertEquals(1, jobs.size());
+		assertTrue(jobs.get(0).isFinished());
+		assertEquals(2, jobs.get(0).count(State.COMMITTED));
+
+		// a finished job is not resumed
+		ImportJournal next = ImportJournal.open(this.conf, Collections.singletonList(this.folder));
+		assertFalse(next.isCommitted(a));
+		next.close();
+	}
+
+	@Test
+	public void testTornLine() throws IOException {
+		Path a = this.folder.resolve("a.jpg");
+		ImportJournal journal = ImportJournal.open(this.conf, Collections.singletonList(this.folder));
+		journal.record(a, State.DISCOVERED);
+		journal.close();
+		Path file = ImportJournal.jobs(this.conf).get(0).getFile();
+		Files.write(file, ("C " + a).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		ImportJournal read = ImportJournal.jobs(this.conf).get(0);
+		assertFalse(read.isCommitted(a));
+		assertEquals(1, read.count(State.DISCOVERED));
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads synthetic JPEG headers, so no photo files are needed.
+ */
+public class JpegHeaderReaderTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testIptcAndExif() throws IOException {
+		ByteArrayOutputStream jpg = new ByteArrayOutputStream();
+		jpg.write(0xFF);
+		jpg.write(0xD8);
+		segment(jpg, 0xE1, exif(6000, 4000));
+		segment(jpg, 0xED, photoshop(iptc("2019", "Beach", "Anna Müller"), "20190713", "143005+0200"));
+		segment(jpg, 0xC0, frame(3000, 2000));
+		jpg.write(0xFF);
+		jpg.write(0xDA);
+		ImageMetadata meta = JpegHeaderReader.read(write(jpg));
+		assertTrue(meta.hasIptc());
+		assertEquals("2019;beach;anna müller", meta.getTags());
+		assertEquals(3, meta.getKeywords().size());
+		assertEquals(6000, meta.getWidth());
+		assertEquals(4000, meta.getHeight());
+		assertEquals(3000, meta.getFrameWidth());
+		assertEquals(2000, meta.getFrameHeight());
+		assertEquals(Utils.cvtDateFromString("20190713 143005", "yyyyMMdd HHmmss"), meta.getCreationDate());
+	}
+
+	@Test
+	public void testFrameSizeWithoutExif() throws IOException {
+		ByteArrayOutputStream jpg = new ByteArrayOutputStream();
+		jpg.write(0xFF);
+		jpg.write(0xD8);
+		segment(jpg, 0xC2, frame(1024, 768));
+		jpg.write(0xFF);
+		jpg.write(0xDA);
+		ImageMetadata meta = JpegHeaderReader.read(write(jpg));
+		assertFalse(meta.hasIptc());
+		assertEquals("", meta.getTags());
+		assertEquals(1024, meta.getWidth());
+		assertEquals(768, meta.getHeight());
+		assertEquals(0, meta.getCreationDate());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAJpeg() throws IOException {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		png.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', 0, 0, 0, 0 });
+		JpegHeaderReader.read(write(png));
+	}
+
+	private String write(ByteArrayOutputStream data) throws IOException {
+		File f = this.tmp.newFile();
+		Files.write(f.toPath(), data.toByteArray());
+		return f.getPath();
+	}
+
+	private static void segment(ByteArrayOutputStream out, int marker, byte[] payload) {
+		out.write(0xFF);
+		out.write(marker);
+		out.write(((payload.length + 2) >> 8) & 0xFF);
+		out.write((payload.length + 2) & 0xFF);
+		out.write(payload, 0, payload.length);
+	}
+
+	private static byte[] frame(int width, int height) {
+		ByteBuffer b = ByteBuffer.allocate(6);
+		b.put((byte) 8).putShort((short) height).putShort((short) width).put((byte) 3);
+		return b.array();
+	}
+
+	/** Little-endian TIFF with IFD0 pointing to an EXIF IFD holding the pixel dimensions. */
+	private static byte[] exif(int width, int height) {
+		ByteBuffer b = ByteBuffer.allocate(6 + 8 + 18 + 30).order(ByteOrder.LITTLE_ENDIAN);
+		b.put("Exif\0\0".getBytes(StandardCharsets.US_ASCII));
+		b.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+		// IFD0: one entry, the EXIF IFD pointer
+		b.putShort((short) 1);
+		b.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(26);
+		b.putInt(0);
+		// EXIF IFD: width as SHORT, height as LONG
+		b.putShort((short) 2);
+		b.putShort((short) 0xA002).putShort((short) 3).putInt(1).putShort((short) width).putShort((short) 0);
+		b.putShort((short) 0xA003).putShort((short) 4).putInt(1).putInt(height);
+		b.putInt(0);
+		return b.array();
+	}
+
+	private static byte[] iptc(String... keywords) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// coded character set: UTF-8
+		dataset(out, 1, 90, new byte[] { 0x1B, '%', 'G' });
+		for (String kw : keywords) {
+			dataset(out, 2, 25, kw.getBytes(StandardCharsets.UTF_8));
+		}
+		return out.toByteArray();
+	}
+
+	private static void dataset(ByteArrayOutputStream out, int record, int dataset, byte[] data) {
+		out.write(0x1C);
+		out.write(record);
+		out.write(dataset);
+		out.write((data.length >> 8) & 0xFF);
+		out.write(data.length & 0xFF);
+		out.write(data, 0, data.length);
+	}
+
+	private static byte[] photoshop(byte[] keywords, String date, String time) {
+		ByteArrayOutputStream iptc = new ByteArrayOutputStream();
+		iptc.write(keywords, 0, keywords.length);
+		dataset(iptc, 2, 55, date.getBytes(StandardCharsets.US_ASCII));
+		dataset(iptc, 2, 60, time.getBytes(StandardCharsets.US_ASCII));
+		byte[] data = iptc.toByteArray();
+		ByteBuffer b = ByteBuffer.allocate(14 + 12 + data.length + 1);
+		b.put("Photoshop 3.0\0".getBytes(StandardCharsets.US_ASCII));
+		b.put("8BIM".getBytes(StandardCharsets.US_ASCII)).putShort((short) 0x0404);
+		// empty pascal name padded to an even size
+		b.put((byte) 0).put((byte) 0);
+		b.putInt(data.length).put(data);
+		return b.array();
+	}
+}
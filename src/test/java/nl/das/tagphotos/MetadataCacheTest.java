@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Uses JPEG files that only have a frame header.
+ */
+public class MetadataCacheTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testReopen() throws IOException {
+		Path file = this.tmp.getRoot().toPath().resolve("metadata.cache");
+		Path jpg = jpeg(1024, 768);
+		MetadataCache cache = new MetadataCache(file);
+		assertEquals(1024, cache.read(jpg).getWidth());
+		assertEquals(1024, cache.read(jpg).getWidth());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		cache.close();
+
+		cache = new MetadataCache(file);
+		assertEquals(768, cache.read(jpg).getHeight());
+		assertEquals(768, cache.read(jpg).getFrameHeight());
+		assertEquals(0, cache.read(jpg).getExifHeight());
+		assertEquals(0, cache.getMisses());
+		cache.close();
+	}
+
+	@Test
+	public void testChangedFile() throws IOException {
+		Path file = this.tmp.getRoot().toPath().resolve("metadata.cache");
+		Path jpg = jpeg(1024, 768);
+		MetadataCache cache = new MetadataCache(file);
+		cache.read(jpg);
+		Files.write(jpg, header(800, 600));
+		Files.setLastModifiedTime(jpg, FileTime.fromMillis(Files.getLastModifiedTime(jpg).toMillis() + 2000));
+		assertEquals(800, cache.read(jpg).getWidth());
+		assertEquals(2, cache.getMisses());
+		cache.close();
+	}
+
+	@Test
+	public void testIncompleteRecord() throws IOException {
+		Path file = this.tmp.getRoot().toPath().resolve("metadata.cache");
+		Path jpg = jpeg(1024, 768);
+		MetadataCache cache = new MetadataCache(file);
+		cache.read(jpg);
+		cache.close();
+		long size = Files.size(file);
+		// a record that was cut off
+		Files.write(file, new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+		cache = new MetadataCache(file);
+		assertEquals(size, Files.size(file));
+		assertEquals(1024, cache.read(jpg).getWidth());
+		assertEquals(1, cache.getHits());
+		Path other = jpeg(640, 480);
+		cache.read(other);
+		cache.close();
+
+		cache = new MetadataCache(file);
+		assertEquals(640, cache.read(other).getWidth());
+		assertEquals(0, cache.getMisses());
+		cache.close();
+	}
+
+	private Path jpeg(int width, int height) throws IOException {
+		Path f = this.tmp.newFile().toPath();
+		Files.write(f, header(width, height));
+		return f;
+	}
+
+	private static byte[] header(int width, int height) {
+		return new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC0, 0, 8, 8, (byte) (height >> 8),
+				(byte) height, (byte) (width >> 8), (byte) width, 3, (byte) 0xFF, (byte) 0xDA };
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2020 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 17 October 2026.
+ */
+
+package nl.das.tagphotos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Parsing of tag queries.
+ */
+public class TagQueryTest {
+
+	@Test
+	public void testPrecedence() {
+		assertEquals("((2019 AND beach AND NOT work) OR anna)",
+				TagQuery.parse("2019 AND beach AND NOT work OR anna").toString());
+		assertEquals("((anna OR piet) AND 2020)", TagQuery.parse("(anna OR piet) AND 2020").toString());
+		assertEquals("NOT NOT beach", TagQuery.parse("not not Beach").toString());
+	}
+
+	@Test
+	public void testImplicitAnd() {
+		assertEquals("(2019 AND beach)", TagQuery.parse("2019 beach").toString());
+	}
+
+	@Test
+	public void testQuotedTags() {
+		TagQuery q = TagQuery.parse("\"New York\" AND \"or\"");
+		assertEquals("(\"new york\" AND \"or\")", q.toString());
+		Set<String> tags = new LinkedHashSet<>();
+		q.collectTags(tags);
+		assertEquals(2, tags.size());
+		assertTrue(tags.contains("new york"));
+		assertTrue(tags.contains("or"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingParenthesis() {
+		TagQuery.parse("(anna OR piet AND 2020");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingTag() {
+		TagQuery.parse("anna AND");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmpty() {
+		TagQuery.parse("  ");
+	}
+}